@@ -0,0 +1,256 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The implementation of bench.Workload over the project's classes.
+ * <p>
+ *
+ * Synthetic corpora repeat every entry of a bundled corpus once per copy,
+ * relabelling the phones of each copy. The graphemes are left alone, so
+ * every emission row and transition row of the trained network grows with
+ * the number of copies, as does the decoding work per grapheme.
+ * <p>
+ *
+ * Words are generated by random walks over the trained network: each
+ * grapheme is followed by one emitting a phone that the previous phone may
+ * transition to, so that words of any length decode to a pronunciation.
+ * Walks are seeded, and every trial decodes the same words.
+ */
+public class BenchmarkWorkload implements bench.Workload {
+
+  // The number of words and edges generated per trial.
+  private static final int SAMPLES = 1024;
+
+  private static final long SEED = 0x67327020L;
+
+  private String corpus;
+  private Path corpusFile;
+  private Graph<String, Double> network;
+  private ImmutableGraph<String> frozen;
+  private GraphemeToPhonemeCalculator gp_calculator;
+  private SimpleGraphemePhoneme sgp_calculator;
+  private List<String> words;
+  private String[] edgeSources;
+  private String[] edgeTargets;
+
+  public void setUp(String model, int wordLength) throws IOException {
+    if (wordLength < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.corpus = loadCorpus(model);
+    this.corpusFile = Files.createTempFile("corpus", ".txt");
+    Files.write(corpusFile, corpus.getBytes(StandardCharsets.UTF_8));
+
+    ParseModifiedBoston pmb = (ParseModifiedBoston) parseFile();
+    CompiledModel compiled = pmb.compile();
+    this.network = pmb.getNetwork();
+    this.frozen = ImmutableGraph.of(network);
+    this.gp_calculator = new GraphemeToPhonemeCalculator(compiled);
+    this.sgp_calculator = new SimpleGraphemePhoneme(compiled);
+
+    Random random = new Random(SEED);
+    this.words = randomWords(compiled, wordLength, random);
+    generateEdges(random);
+  }
+
+  public void tearDown() throws IOException {
+    if (corpusFile != null) {
+      Files.deleteIfExists(corpusFile);
+    }
+  }
+
+  public int words() {
+    return words.size();
+  }
+
+  public String calculatePhoneme(int i) {
+    return gp_calculator.calculatePhoneme(words.get(i));
+  }
+
+  public String getSimpleMapping(int i) {
+    return sgp_calculator.getSimpleMapping(words.get(i));
+  }
+
+  public List<String> calculatePhonemes(ForkJoinPool pool) {
+    // Parallel streams run in the pool of the task starting them.
+    return pool.submit(() -> gp_calculator.calculatePhonemes(words)).join();
+  }
+
+  public Object parseFile() throws IOException {
+    ParseModifiedBoston pmb = new ParseModifiedBoston();
+    pmb.parseFile(new BufferedReader(new StringReader(corpus)));
+    return pmb;
+  }
+
+  public Object parseFileParallel(int threads) throws IOException {
+    ParseModifiedBoston pmb = new ParseModifiedBoston();
+    pmb.parseFileParallel(corpusFile, threads);
+    return pmb;
+  }
+
+  public int edges() {
+    return edgeSources.length;
+  }
+
+  public Double getEdgeBetween(int i) {
+    return network.getEdgeBetween(edgeSources[i], edgeTargets[i]);
+  }
+
+  public Object getChildrenOf(int i) {
+    return network.getChildrenOf(edgeSources[i]);
+  }
+
+  public double getFrozenEdgeBetween(int i) {
+    return frozen.getEdgeBetween(edgeSources[i], edgeTargets[i]);
+  }
+
+  // Reads the corpus named by model, scaling it up if asked to. Corpora are
+  // found relative to the "corpus.dir" system property, which defaults to
+  // the working directory.
+  private static String loadCorpus(String model) throws IOException {
+    int copies = 1;
+    String name = model;
+    int scale = model.indexOf("-x");
+    if (scale >= 0) {
+      name = model.substring(0, scale);
+      copies = Integer.parseInt(model.substring(scale + 2));
+    }
+
+    Path dir = Paths.get(System.getProperty("corpus.dir", "."));
+    Path file;
+    if (name.equals("test")) {
+      file = dir.resolve("corpus_test.txt");
+    } else if (name.equals("full")) {
+      file = dir.resolve("..").resolve("corpus.txt");
+    } else {
+      throw new IllegalArgumentException("Unknown model: " + model);
+    }
+
+    List<String> entries = new ArrayList<>();
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      if (line.equals("BREAK!")) {
+        break;
+      }
+      if (line.contains(" ")) {
+        entries.add(line);
+      }
+    }
+
+    StringBuilder res = new StringBuilder();
+    for (int c = 0; c < copies; c++) {
+      for (String entry : entries) {
+        res.append(c == 0 ? entry : relabel(entry, c)).append('\n');
+      }
+    }
+    return res.toString();
+  }
+
+  // Relabels the phones of a corpus entry as those of copy c.
+  private static String relabel(String entry, int c) {
+    String[] tokens = entry.split(" ");
+    for (int i = 1; i < tokens.length - 1; i += 2) {
+      if (tokens[i].equals("//")) {
+        break;
+      }
+      tokens[i] = tokens[i] + "~" + c;
+    }
+    return String.join(" ", tokens);
+  }
+
+  // Generates hyphen-segmented words of the given number of graphemes by
+  // random walks over the emissions and transitions of a model.
+  private static List<String> randomWords(CompiledModel model, int length,
+                                          Random random) {
+    SymbolTable graphemes = model.graphemes();
+
+    // emitters.get(p) lists the corpus graphemes emitting phone p.
+    List<List<Integer>> emitters = new ArrayList<>();
+    for (int p = 0; p < model.phones().size(); p++) {
+      emitters.add(new ArrayList<>());
+    }
+    List<Integer> starts = new ArrayList<>();
+    for (int g = 0; g < graphemes.size(); g++) {
+      if (model.graphemePrior(g) > 0 && !graphemes.symbol(g).isEmpty()
+              && model.emissionStart(g) < model.emissionEnd(g)) {
+        starts.add(g);
+        for (int k = model.emissionStart(g); k < model.emissionEnd(g); k++) {
+          emitters.get(model.emissionPhone(k)).add(g);
+        }
+      }
+    }
+
+    List<String> res = new ArrayList<>();
+    for (int w = 0; w < SAMPLES; w++) {
+      res.add(randomWalk(model, length, starts, emitters, random));
+    }
+    return res;
+  }
+
+  // Walks the model for one word, starting from a random grapheme of starts.
+  private static String randomWalk(CompiledModel model, int length,
+                                   List<Integer> starts,
+                                   List<List<Integer>> emitters,
+                                   Random random) {
+    SymbolTable graphemes = model.graphemes();
+    StringBuilder res = new StringBuilder();
+    int g = starts.get(random.nextInt(starts.size()));
+    int k = model.emissionStart(g)
+            + random.nextInt(model.emissionEnd(g) - model.emissionStart(g));
+    res.append(graphemes.symbol(g));
+    for (int i = 1; i < length; i++) {
+      int phone = model.emissionPhone(k);
+      List<Integer> next = new ArrayList<>();
+      for (int t = model.transitionStart(phone); t < model.transitionEnd(phone); t++) {
+        if (!emitters.get(model.transitionTarget(t)).isEmpty()) {
+          next.add(model.transitionTarget(t));
+        }
+      }
+
+      if (next.isEmpty()) {
+        // A dead end; continue the word from a fresh start.
+        g = starts.get(random.nextInt(starts.size()));
+        k = model.emissionStart(g)
+                + random.nextInt(model.emissionEnd(g) - model.emissionStart(g));
+      } else {
+        int target = next.get(random.nextInt(next.size()));
+        List<Integer> candidates = emitters.get(target);
+        g = candidates.get(random.nextInt(candidates.size()));
+        k = model.emissionStart(g);
+        while (model.emissionPhone(k) != target) {
+          k++;
+        }
+      }
+      res.append('-').append(graphemes.symbol(g));
+    }
+    return res.toString();
+  }
+
+  // Picks edges of the network to look up, one in four of them missing.
+  private void generateEdges(Random random) {
+    List<String[]> present = new ArrayList<>();
+    for (String src : network.getNodes()) {
+      for (String dst : network.getChildrenOf(src)) {
+        present.add(new String[] {src, dst});
+      }
+    }
+    List<String> nodes = new ArrayList<>(network.getNodes());
+
+    this.edgeSources = new String[SAMPLES];
+    this.edgeTargets = new String[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      if (!present.isEmpty() && random.nextInt(4) > 0) {
+        String[] edge = present.get(random.nextInt(present.size()));
+        edgeSources[i] = edge[0];
+        edgeTargets[i] = edge[1];
+      } else {
+        edgeSources[i] = nodes.get(random.nextInt(nodes.size()));
+        edgeTargets[i] = nodes.get(random.nextInt(nodes.size()));
+      }
+    }
+  }
+}
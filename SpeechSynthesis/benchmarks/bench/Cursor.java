@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cycles each benchmark thread through the generated samples.
+ */
+@State(Scope.Thread)
+public class Cursor {
+
+  private int i;
+
+  /**
+   * @param n the number of samples
+   * @return Returns the index of the next sample, wrapping back to 0
+   * @modifies this
+   */
+  public int next(int n) {
+    int res = i;
+    i = res + 1 < n ? res + 1 : 0;
+    return res;
+  }
+}
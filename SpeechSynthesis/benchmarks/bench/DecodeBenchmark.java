@@ -0,0 +1,50 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of decoding single words with the Viterbi decoder and with
+ * the baseline mapping. Run with "-t N" to decode from N threads sharing
+ * one calculator. JMH takes its thread count from "-t" alone, not from a
+ * parameter, so a sweep over thread counts is one run per count, as the
+ * README shows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+  @Param({"test", "full", "test-x4", "test-x16"})
+  public String model;
+
+  @Param({"2", "5", "10"})
+  public int wordLength;
+
+  private Workload workload;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload = Workload.create();
+    workload.setUp(model, wordLength);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    workload.tearDown();
+  }
+
+  @Benchmark
+  public String calculatePhoneme(Cursor cursor) {
+    return workload.calculatePhoneme(cursor.next(workload.words()));
+  }
+
+  @Benchmark
+  public String getSimpleMapping(Cursor cursor) {
+    return workload.getSimpleMapping(cursor.next(workload.words()));
+  }
+}
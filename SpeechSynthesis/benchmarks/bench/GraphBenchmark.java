@@ -0,0 +1,49 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of edge and child lookups on the trained grapheme-to-phoneme
+ * network, as a mutable Graph and frozen into an ImmutableGraph.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+  @Param({"test", "full", "test-x4", "test-x16"})
+  public String model;
+
+  private Workload workload;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload = Workload.create();
+    workload.setUp(model, 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    workload.tearDown();
+  }
+
+  @Benchmark
+  public Double getEdgeBetween(Cursor cursor) {
+    return workload.getEdgeBetween(cursor.next(workload.edges()));
+  }
+
+  @Benchmark
+  public Object getChildrenOf(Cursor cursor) {
+    return workload.getChildrenOf(cursor.next(workload.edges()));
+  }
+
+  @Benchmark
+  public double getFrozenEdgeBetween(Cursor cursor) {
+    return workload.getFrozenEdgeBetween(cursor.next(workload.edges()));
+  }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of the batch operations that spread their work over a number
+ * of threads: decoding every generated word with calculatePhonemes, and
+ * training with parseFileParallel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+
+  @Param({"test", "full", "test-x4", "test-x16"})
+  public String model;
+
+  @Param({"5"})
+  public int wordLength;
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  private Workload workload;
+  private ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload = Workload.create();
+    workload.setUp(model, wordLength);
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    pool.shutdown();
+    workload.tearDown();
+  }
+
+  @Benchmark
+  public List<String> calculatePhonemes() {
+    return workload.calculatePhonemes(pool);
+  }
+
+  @Benchmark
+  public Object parseFileParallel() throws IOException {
+    return workload.parseFileParallel(threads);
+  }
+}
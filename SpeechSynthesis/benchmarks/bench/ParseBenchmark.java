@@ -0,0 +1,39 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of training a model on a corpus held in memory with
+ * parseFile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+  @Param({"test", "full", "test-x4", "test-x16"})
+  public String model;
+
+  private Workload workload;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload = Workload.create();
+    workload.setUp(model, 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    workload.tearDown();
+  }
+
+  @Benchmark
+  public Object parseFile() throws IOException {
+    return workload.parseFile();
+  }
+}
@@ -0,0 +1,111 @@
+package bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The operations measured by the benchmarks, over one model and one set
+ * of words.
+ * <p>
+ *
+ * JMH only accepts benchmarks in a named package, while the project's
+ * classes live in the unnamed package and cannot be referenced from one.
+ * The benchmarks therefore reach them through this interface, which is
+ * implemented by the unnamed-package class BenchmarkWorkload and looked up
+ * by name once per trial. Each operation costs a single interface call
+ * over the code it measures.
+ */
+public interface Workload {
+
+  /**
+   * Creates an empty workload.
+   * @return Returns a new BenchmarkWorkload
+   */
+  static Workload create() {
+    try {
+      return (Workload) Class.forName("BenchmarkWorkload")
+              .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Loads a corpus, trains a model on it and generates words to decode.
+   * @param model the corpus to train on: "test" for corpus_test.txt,
+   *              "full" for the top-level corpus.txt, or either followed
+   *              by "-xN" for a synthetic corpus N times its size
+   * @param wordLength the number of graphemes in each generated word
+   * @modifies this
+   */
+  void setUp(String model, int wordLength) throws IOException;
+
+  /**
+   * Releases any files created by setUp.
+   * @modifies this
+   */
+  void tearDown() throws IOException;
+
+  /**
+   * @return Returns the number of generated words
+   */
+  int words();
+
+  /**
+   * @param i the index of a generated word
+   * @return Returns the result of GraphemeToPhonemeCalculator.calculatePhoneme
+   */
+  String calculatePhoneme(int i);
+
+  /**
+   * @param i the index of a generated word
+   * @return Returns the result of SimpleGraphemePhoneme.getSimpleMapping
+   */
+  String getSimpleMapping(int i);
+
+  /**
+   * Decodes every generated word as one batch on the given pool.
+   * @param pool the pool to decode on
+   * @return Returns the result of GraphemeToPhonemeCalculator.calculatePhonemes
+   */
+  List<String> calculatePhonemes(ForkJoinPool pool);
+
+  /**
+   * Trains a new model on the corpus with ParseModifiedBoston.parseFile.
+   * @return Returns the trained parser
+   */
+  Object parseFile() throws IOException;
+
+  /**
+   * Trains a new model on the corpus with ParseModifiedBoston.parseFileParallel.
+   * @param threads the number of threads to count with
+   * @return Returns the trained parser
+   */
+  Object parseFileParallel(int threads) throws IOException;
+
+  /**
+   * @return Returns the number of generated edges
+   */
+  int edges();
+
+  /**
+   * @param i the index of a generated edge
+   * @return Returns Graph.getEdgeBetween for the edge on the trained network
+   */
+  Double getEdgeBetween(int i);
+
+  /**
+   * @param i the index of a generated edge
+   * @return Returns Graph.getChildrenOf for the edge's source on the
+   *         trained network
+   */
+  Object getChildrenOf(int i);
+
+  /**
+   * @param i the index of a generated edge
+   * @return Returns ImmutableGraph.getEdgeBetween for the edge on the
+   *         frozen network
+   */
+  double getFrozenEdgeBetween(int i);
+}
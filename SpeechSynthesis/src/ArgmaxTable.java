@@ -0,0 +1,89 @@
+/**
+ * A precompiled table of the most probable phone of every grapheme of a
+ * CompiledModel, along with how confidently it wins.
+ * <p>
+ *
+ * The confidence of a grapheme is its margin: the natural log of the ratio
+ * between the probabilities of its most and second most probable phones.
+ * A grapheme with a single phone has an infinite margin. Ties between
+ * phones of equal probability go to the phone with the lowest ID, and
+ * leave a margin of 0.
+ * <p>
+ *
+ * An ArgmaxTable is immutable once built and may be read by any number of
+ * threads at once.
+ */
+public final class ArgmaxTable {
+
+  private final CompiledModel model;
+
+  // Most probable phone and margin by grapheme ID.
+  private final int[] phones;
+  private final double[] margins;
+
+  /**
+   * Constructor for an ArgmaxTable
+   * @param model the compiled network whose emissions to tabulate
+   */
+  public ArgmaxTable(CompiledModel model) {
+    this.model = model;
+    int size = model.graphemes().size();
+    this.phones = new int[size];
+    this.margins = new double[size];
+    for (int g = 0; g < size; g++) {
+      int best = -1;
+      double maxProb = 0.0;
+      double runnerUp = 0.0;
+      for (int k = model.emissionStart(g); k < model.emissionEnd(g); k++) {
+        double currEdge = model.emissionProb(k);
+        if (currEdge > maxProb) {
+          runnerUp = maxProb;
+          maxProb = currEdge;
+          best = model.emissionPhone(k);
+        } else if (currEdge > runnerUp) {
+          runnerUp = currEdge;
+        }
+      }
+      phones[g] = best;
+      if (best < 0) {
+        margins[g] = Double.NEGATIVE_INFINITY;
+      } else {
+        margins[g] = runnerUp > 0 ? Math.log(maxProb / runnerUp) : Double.POSITIVE_INFINITY;
+      }
+    }
+  }
+
+  /**
+   * @return Returns the model this table was built from
+   */
+  public CompiledModel getModel() {
+    return model;
+  }
+
+  /**
+   * @param g a grapheme ID
+   * @return Returns the ID of the most probable phone of grapheme g, or -1
+   *         if it has no phone of nonzero probability
+   */
+  public int phone(int g) {
+    return phones[g];
+  }
+
+  /**
+   * @param g a grapheme ID
+   * @return Returns the natural log of how many times more probable the
+   *         most probable phone of g is than the next, positive infinity
+   *         if it has no rival, or negative infinity if it has no phone
+   */
+  public double margin(int g) {
+    return margins[g];
+  }
+
+  /**
+   * @return Returns the approximate number of bytes occupied by this
+   *         table, excluding its model
+   */
+  public long getFootprint() {
+    return 4L * phones.length + 8L * margins.length;
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * A CompiledModel whose tables are held in primitive heap arrays.
+ */
+class ArrayModel extends CompiledModel {
+
+  private final double[] graphemePriors;
+  private final double[] phonePriors;
+
+  // Emissions: grapheme ID -> phone IDs, with the probability of each
+  // mapping and the probability used when the phone starts a word.
+  private final int[] emissionOffsets;
+  private final int[] emissionPhones;
+  private final double[] emissionProbs;
+  private final double[] initialProbs;
+  private final double[] emissionLogProbs;
+  private final double[] initialLogProbs;
+
+  // Transitions: phone ID -> phone ID.
+  private final int[] transitionOffsets;
+  private final int[] transitionTargets;
+  private final double[] transitionProbs;
+  private final double[] transitionLogProbs;
+
+  ArrayModel(SymbolTable graphemes, SymbolTable phones,
+             double[] graphemePriors, double[] phonePriors,
+             int[] emissionOffsets, int[] emissionPhones,
+             double[] emissionProbs, double[] initialProbs,
+             int[] transitionOffsets, int[] transitionTargets,
+             double[] transitionProbs) {
+    super(graphemes, phones);
+    this.graphemePriors = graphemePriors;
+    this.phonePriors = phonePriors;
+    this.emissionOffsets = emissionOffsets;
+    this.emissionPhones = emissionPhones;
+    this.emissionProbs = emissionProbs;
+    this.initialProbs = initialProbs;
+    this.transitionOffsets = transitionOffsets;
+    this.transitionTargets = transitionTargets;
+    this.transitionProbs = transitionProbs;
+    this.emissionLogProbs = logOf(emissionProbs);
+    this.initialLogProbs = logOf(initialProbs);
+    this.transitionLogProbs = logOf(transitionProbs);
+  }
+
+  // Returns the element-wise natural log of probs.
+  private static double[] logOf(double[] probs) {
+    double[] res = new double[probs.length];
+    for (int i = 0; i < probs.length; i++) {
+      res[i] = Math.log(probs[i]);
+    }
+    return res;
+  }
+
+  protected long tableFootprint() {
+    return 8L * (graphemePriors.length + phonePriors.length)
+            + 4L * (emissionOffsets.length + emissionPhones.length)
+            + 8L * (emissionProbs.length + initialProbs.length
+                    + emissionLogProbs.length + initialLogProbs.length)
+            + 4L * (transitionOffsets.length + transitionTargets.length)
+            + 8L * (transitionProbs.length + transitionLogProbs.length);
+  }
+
+  public double graphemePrior(int g) {
+    return graphemePriors[g];
+  }
+
+  public double phonePrior(int p) {
+    return phonePriors[p];
+  }
+
+  public int emissionStart(int g) {
+    return emissionOffsets[g];
+  }
+
+  public int emissionPhone(int k) {
+    return emissionPhones[k];
+  }
+
+  public double emissionProb(int k) {
+    return emissionProbs[k];
+  }
+
+  public double initialProb(int k) {
+    return initialProbs[k];
+  }
+
+  public double emissionLogProb(int k) {
+    return emissionLogProbs[k];
+  }
+
+  public double initialLogProb(int k) {
+    return initialLogProbs[k];
+  }
+
+  public int transitionStart(int a) {
+    return transitionOffsets[a];
+  }
+
+  public int transitionTarget(int k) {
+    return transitionTargets[k];
+  }
+
+  public double transitionProbAt(int k) {
+    return transitionProbs[k];
+  }
+
+  public double transitionLogProbAt(int k) {
+    return transitionLogProbs[k];
+  }
+}
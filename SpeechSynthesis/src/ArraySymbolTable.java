@@ -0,0 +1,94 @@
+import java.util.*;
+
+/**
+ * A SymbolTable held in heap arrays. Lookups use an open-addressed table
+ * of ints so that no boxing takes place.
+ */
+class ArraySymbolTable extends SymbolTable {
+
+  private final String[] symbols;
+
+  // Slots hold (id + 1) of the symbol hashed there, 0 marks an empty slot.
+  private final int[] slots;
+  private final int mask;
+
+  /**
+   * Constructor for an ArraySymbolTable
+   * @param values the symbols to intern, in the order their IDs are assigned
+   * @throws IllegalArgumentException if a symbol is null or repeated
+   */
+  ArraySymbolTable(Collection<String> values) {
+    this.symbols = values.toArray(new String[values.size()]);
+    int capacity = 2;
+    while (capacity < symbols.length * 2) {
+      capacity <<= 1;
+    }
+    this.slots = new int[capacity];
+    this.mask = capacity - 1;
+
+    for (int id = 0; id < symbols.length; id++) {
+      if (symbols[id] == null || id(symbols[id]) >= 0) {
+        throw new IllegalArgumentException();
+      }
+      int slot = spread(symbols[id].hashCode()) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  public int id(String symbol) {
+    int slot = spread(symbol.hashCode()) & mask;
+    while (slots[slot] != 0) {
+      int id = slots[slot] - 1;
+      if (symbols[id].equals(symbol)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  public int id(CharSequence chars, int start, int end) {
+    int slot = spread(hash(chars, start, end)) & mask;
+    while (slots[slot] != 0) {
+      int id = slots[slot] - 1;
+      if (matches(symbols[id], chars, start, end)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  public String symbol(int id) {
+    return symbols[id];
+  }
+
+  // Counts each symbol as a String of one byte per character.
+  public long getFootprint() {
+    long res = 16 + 4L * symbols.length + 16 + 4L * slots.length;
+    for (String symbol : symbols) {
+      res += 40 + symbol.length();
+    }
+    return res;
+  }
+
+  public int size() {
+    return symbols.length;
+  }
+
+  // Returns whether symbol holds exactly the characters [start, end) of chars.
+  private static boolean matches(String symbol, CharSequence chars, int start, int end) {
+    if (symbol.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < symbol.length(); i++) {
+      if (symbol.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,211 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Transcribes a file of hyphen-segmented words, one per line, into a file
+ * of "word TAB phones" lines in the same order. Words that cannot be
+ * decoded are written with no phones.
+ * <p>
+ *
+ * The input is memory-mapped one line-aligned chunk at a time, and chunks
+ * are decoded in parallel. Their output is written in input order through
+ * a direct buffer, with only a bounded window of chunks in flight, so
+ * memory use does not grow with the size of the file.
+ */
+public class BulkTranscriber {
+
+  private static final long CHUNK_BYTES = 1 << 20;
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+  // How often progress is reported.
+  private static final long PROGRESS_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final GraphemeToPhonemeCalculator calculator;
+  private final int threads;
+
+  /**
+   * Constructor for a BulkTranscriber
+   * @param calculator the calculator to transcribe with
+   * @param threads the number of threads to decode with
+   * @throws IllegalArgumentException if threads is less than 1
+   */
+  public BulkTranscriber(GraphemeToPhonemeCalculator calculator, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.calculator = calculator;
+    this.threads = threads;
+  }
+
+  /**
+   * Transcribes every word of a UTF-8 input file into an output file,
+   * replacing it if it exists.
+   * @param input the file of words to transcribe
+   * @param output the file to write transcriptions to
+   * @param progress where to report progress, or null for no reports
+   * @return Returns the number of words transcribed
+   */
+  public long transcribe(Path input, Path output, PrintStream progress)
+          throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long words = 0;
+    long begin = System.nanoTime();
+    long lastReport = begin;
+    try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = in.size();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+
+      // Chunks are submitted in file order and written as they complete,
+      // keeping at most a few chunks per thread in flight.
+      Deque<Future<Chunk>> window = new ArrayDeque<>();
+      long next = 0;
+      while (next < size || !window.isEmpty()) {
+        while (next < size && window.size() < threads * 4) {
+          long start = next;
+          long end = ParseModifiedBoston.lineStartAfter(in, start + CHUNK_BYTES);
+          window.add(pool.submit(() -> transcribeChunk(in, start, end)));
+          next = end;
+        }
+
+        Chunk chunk = window.remove().get();
+        write(out, buffer, chunk.output);
+        words += chunk.words;
+
+        long now = System.nanoTime();
+        if (progress != null && now - lastReport >= PROGRESS_NANOS) {
+          progress.printf("%d words, %.1f%% of input, %.0f words/sec%n",
+                  words, 100.0 * chunk.end / size, wordsPerSecond(words, now - begin));
+          lastReport = now;
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    if (progress != null) {
+      progress.printf("Transcribed %d words in %.2f s, %.0f words/sec%n", words,
+              (System.nanoTime() - begin) / 1e9, wordsPerSecond(words, System.nanoTime() - begin));
+    }
+    return words;
+  }
+
+  // Transcribes the lines in [start, end) of a file.
+  private Chunk transcribeChunk(FileChannel channel, long start, long end)
+          throws IOException {
+    CharBuffer chars = StandardCharsets.UTF_8.decode(
+            channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    StringBuilder res = new StringBuilder(chars.length() * 2);
+    long words = 0;
+    int lineStart = 0;
+    int length = chars.length();
+    while (lineStart < length) {
+
+      // Lines end in "\n", "\r" or "\r\n", like BufferedReader.readLine().
+      int lineEnd = lineStart;
+      while (lineEnd < length && chars.get(lineEnd) != '\n' && chars.get(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      String word = chars.subSequence(lineStart, lineEnd).toString().trim();
+      if (!word.isEmpty()) {
+        String phones = calculator.calculatePhoneme(word.toLowerCase());
+        res.append(word).append('\t').append(phones == null ? "" : phones).append('\n');
+        words++;
+      }
+
+      if (lineEnd + 1 < length && chars.get(lineEnd) == '\r' && chars.get(lineEnd + 1) == '\n') {
+        lineEnd++;
+      }
+      lineStart = lineEnd + 1;
+    }
+    return new Chunk(res.toString().getBytes(StandardCharsets.UTF_8), words, end);
+  }
+
+  // Copies bytes into buffer, writing it to out whenever it fills.
+  private static void write(FileChannel out, ByteBuffer buffer, byte[] bytes)
+          throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int length = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+      if (!buffer.hasRemaining()) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+  }
+
+  private static double wordsPerSecond(long words, long nanos) {
+    return nanos > 0 ? words / (nanos / 1e9) : 0.0;
+  }
+
+  // The encoded output of one chunk, how many words it held, and the
+  // offset of the input the chunk ends at.
+  private static class Chunk {
+    private final byte[] output;
+    private final long words;
+    private final long end;
+
+    private Chunk(byte[] output, long words, long end) {
+      this.output = output;
+      this.words = words;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Transcribes a file of words on all available cores, reporting progress
+   * to standard error.
+   * @param args input_file output_file [model_file]: without a model file
+   *             the model is trained on the corpus
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BulkTranscriber input_file output_file [model_file]");
+      System.exit(1);
+    }
+
+    CompiledModel model;
+    if (args.length > 2) {
+      model = ModelFile.map(Paths.get(args[2]));
+    } else {
+      File file = new File("corpus_test.txt");
+      BufferedReader readFile = new BufferedReader(new FileReader(file));
+      ParseModifiedBoston pmb = new ParseModifiedBoston();
+      pmb.parseFile(readFile);
+      model = pmb.compile();
+    }
+
+    BulkTranscriber transcriber = new BulkTranscriber(
+            new GraphemeToPhonemeCalculator(model),
+            Runtime.getRuntime().availableProcessors());
+    transcriber.transcribe(Paths.get(args[0]), Paths.get(args[1]), System.err);
+  }
+}
@@ -0,0 +1,300 @@
+import java.util.*;
+
+/**
+ * A read-only, compiled form of a trained grapheme-to-phoneme network.
+ * <p>
+ *
+ * Graphemes and phones are interned as dense integer IDs through a pair of
+ * symbol tables, and the emission and transition graphs are stored in
+ * compressed sparse row (CSR) form: the outgoing edges of row r occupy the
+ * index range [start(r), end(r)) of parallel target and probability arrays,
+ * sorted by target ID. Decoders operate on these primitive tables alone, so
+ * no hashing or unboxing happens while decoding.
+ * <p>
+ *
+ * Every probability is also stored as a natural log weight, computed once at
+ * compile time, for decoders scoring in ScoringMode.LOG.
+ * <p>
+ *
+ * Subclasses decide where the tables live: compile() keeps them in heap
+ * arrays, while ModelFile.map() reads them in place from a memory-mapped
+ * model file.
+ * <p>
+ *
+ * A CompiledModel is immutable once compiled and may be read by any number
+ * of threads at once. It shares no state with the graphs it was compiled
+ * from, which may continue to be modified afterwards.
+ */
+public abstract class CompiledModel {
+
+  private final SymbolTable graphemes;
+  private final SymbolTable phones;
+
+  /**
+   * Constructor for a CompiledModel
+   * @param graphemes the symbol table of graphemes
+   * @param phones the symbol table of phones
+   */
+  protected CompiledModel(SymbolTable graphemes, SymbolTable phones) {
+    this.graphemes = graphemes;
+    this.phones = phones;
+  }
+
+  /**
+   * Compiles a trained network into its integer representation.
+   * @param gToP a graph mapping graphemes to phonemes
+   * @param t a transitional matrix of phonemes connected by
+   *          normalized probabilities
+   * @param g a map of graphemes to their probabilities
+   * @param p a map of phonemes to their probabilities, used in place of
+   *          the emission probability for the first phone of a word
+   * @return The compiled model
+   */
+  public static CompiledModel compile(Graph<String, Double> gToP,
+                                      Graph<String, Double> t,
+                                      Map<String, Double> g,
+                                      Map<String, Double> p) {
+
+    // Every node of gToP may be looked up as a grapheme, whereas phones are
+    // the children of those nodes plus every node of the transitions.
+    SymbolTable graphemes = SymbolTable.of(new TreeSet<>(gToP.getNodes()));
+    Set<String> phoneSet = new TreeSet<>(t.getNodes());
+    for (String node : gToP.getNodes()) {
+      phoneSet.addAll(gToP.getChildrenOf(node));
+    }
+    SymbolTable phones = SymbolTable.of(phoneSet);
+
+    double[] graphemePriors = new double[graphemes.size()];
+    for (int i = 0; i < graphemes.size(); i++) {
+      Double prior = g.get(graphemes.symbol(i));
+      graphemePriors[i] = prior != null ? prior : 0.0;
+    }
+    double[] phonePriors = new double[phones.size()];
+    for (int i = 0; i < phones.size(); i++) {
+      Double prior = p.get(phones.symbol(i));
+      phonePriors[i] = prior != null ? prior : 0.0;
+    }
+
+    int[] emissionOffsets = new int[graphemes.size() + 1];
+    for (int i = 0; i < graphemes.size(); i++) {
+      emissionOffsets[i + 1] = emissionOffsets[i]
+              + gToP.getChildrenOf(graphemes.symbol(i)).size();
+    }
+    int[] emissionPhones = new int[emissionOffsets[graphemes.size()]];
+    double[] emissionProbs = new double[emissionPhones.length];
+    double[] initialProbs = new double[emissionPhones.length];
+    for (int i = 0; i < graphemes.size(); i++) {
+      fillRow(gToP, graphemes.symbol(i), phones, emissionOffsets[i],
+              emissionPhones, emissionProbs);
+      for (int k = emissionOffsets[i]; k < emissionOffsets[i + 1]; k++) {
+        Double prior = p.get(phones.symbol(emissionPhones[k]));
+        initialProbs[k] = prior != null ? prior : emissionProbs[k];
+      }
+    }
+
+    int[] transitionOffsets = new int[phones.size() + 1];
+    for (int a = 0; a < phones.size(); a++) {
+      Set<String> children = t.getChildrenOf(phones.symbol(a));
+      transitionOffsets[a + 1] = transitionOffsets[a]
+              + (children == null ? 0 : children.size());
+    }
+    int[] transitionTargets = new int[transitionOffsets[phones.size()]];
+    double[] transitionProbs = new double[transitionTargets.length];
+    for (int a = 0; a < phones.size(); a++) {
+      if (t.containsNode(phones.symbol(a))) {
+        fillRow(t, phones.symbol(a), phones, transitionOffsets[a],
+                transitionTargets, transitionProbs);
+      }
+    }
+
+    return new ArrayModel(graphemes, phones, graphemePriors, phonePriors,
+                          emissionOffsets, emissionPhones, emissionProbs,
+                          initialProbs, transitionOffsets, transitionTargets,
+                          transitionProbs);
+  }
+
+  // Writes the edges leaving src into the row beginning at start, sorted by
+  // target ID.
+  private static void fillRow(Graph<String, Double> graph, String src,
+                              SymbolTable targets, int start,
+                              int[] targetIds, double[] probs) {
+    Set<String> children = graph.getChildrenOf(src);
+    int[] ids = new int[children.size()];
+    int i = 0;
+    for (String c : children) {
+      ids[i++] = targets.id(c);
+    }
+    Arrays.sort(ids);
+    for (i = 0; i < ids.length; i++) {
+      targetIds[start + i] = ids[i];
+      probs[start + i] = graph.getEdgeBetween(src, targets.symbol(ids[i]));
+    }
+  }
+
+  /**
+   * @return Returns the symbol table of graphemes
+   */
+  public SymbolTable graphemes() {
+    return graphemes;
+  }
+
+  /**
+   * @return Returns the symbol table of phones
+   */
+  public SymbolTable phones() {
+    return phones;
+  }
+
+  /**
+   * Estimates the memory held by this model, for comparing the size of
+   * models and budgeting how many may be resident at once.
+   * @return Returns the approximate number of bytes occupied by the
+   *         tables of this model, including its symbol tables
+   */
+  public long getFootprint() {
+    return graphemes.getFootprint() + phones.getFootprint() + tableFootprint();
+  }
+
+  /**
+   * @return Returns the number of bytes occupied by the probability and
+   *         CSR tables of this model, wherever they are held
+   */
+  protected abstract long tableFootprint();
+
+  /**
+   * @param g a grapheme ID
+   * @return Returns the probability of grapheme g given at compile time,
+   *         or 0 if it had none
+   */
+  public abstract double graphemePrior(int g);
+
+  /**
+   * @param p a phone ID
+   * @return Returns the probability of phone p given at compile time,
+   *         or 0 if it had none
+   */
+  public abstract double phonePrior(int p);
+
+  /**
+   * Returns the index of the first emission of a grapheme. The emissions of
+   * grapheme g are the indices [emissionStart(g), emissionEnd(g)).
+   * @param g a grapheme ID, or graphemes().size() for the total number
+   *          of emissions
+   */
+  public abstract int emissionStart(int g);
+
+  /**
+   * Returns the index one past the last emission of a grapheme.
+   * @param g a grapheme ID
+   */
+  public int emissionEnd(int g) {
+    return emissionStart(g + 1);
+  }
+
+  /**
+   * @param k an emission index
+   * @return Returns the ID of the phone emitted by emission k
+   */
+  public abstract int emissionPhone(int k);
+
+  /**
+   * @param k an emission index
+   * @return Returns the normalized probability of emission k
+   */
+  public abstract double emissionProb(int k);
+
+  /**
+   * @param k an emission index
+   * @return Returns the probability of emission k when it begins a word
+   */
+  public abstract double initialProb(int k);
+
+  /**
+   * @param k an emission index
+   * @return Returns the log of emissionProb(k)
+   */
+  public abstract double emissionLogProb(int k);
+
+  /**
+   * @param k an emission index
+   * @return Returns the log of initialProb(k)
+   */
+  public abstract double initialLogProb(int k);
+
+  /**
+   * Returns the index of the first transition leaving a phone. The
+   * transitions of phone a are the indices [transitionStart(a),
+   * transitionEnd(a)), sorted by target.
+   * @param a a phone ID, or phones().size() for the total number
+   *          of transitions
+   */
+  public abstract int transitionStart(int a);
+
+  /**
+   * Returns the index one past the last transition leaving a phone.
+   * @param a a phone ID
+   */
+  public int transitionEnd(int a) {
+    return transitionStart(a + 1);
+  }
+
+  /**
+   * @param k a transition index
+   * @return Returns the ID of the phone transition k leads to
+   */
+  public abstract int transitionTarget(int k);
+
+  /**
+   * @param k a transition index
+   * @return Returns the normalized probability of transition k
+   */
+  public abstract double transitionProbAt(int k);
+
+  /**
+   * @param k a transition index
+   * @return Returns the log of transitionProbAt(k)
+   */
+  public abstract double transitionLogProbAt(int k);
+
+  /**
+   * Returns the normalized probability of one phone following another.
+   * @param from the ID of the previous phone
+   * @param to the ID of the next phone
+   * @return Returns the transition probability, or 0 if there is none
+   */
+  public double transitionProb(int from, int to) {
+    int k = findTransition(from, to);
+    return k >= 0 ? transitionProbAt(k) : 0.0;
+  }
+
+  /**
+   * Returns the log probability of one phone following another.
+   * @param from the ID of the previous phone
+   * @param to the ID of the next phone
+   * @return Returns the log of transitionProb(from, to), or negative
+   *         infinity if there is no such transition
+   */
+  public double transitionLogProb(int from, int to) {
+    int k = findTransition(from, to);
+    return k >= 0 ? transitionLogProbAt(k) : Double.NEGATIVE_INFINITY;
+  }
+
+  // Binary searches the row of "from" for the transition to "to".
+  // Returns its index, or -1 if there is none.
+  private int findTransition(int from, int to) {
+    int lo = transitionStart(from);
+    int hi = transitionEnd(from) - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int target = transitionTarget(mid);
+      if (target < to) {
+        lo = mid + 1;
+      } else if (target > to) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,141 @@
+import java.util.*;
+
+/**
+ * Accumulates the raw counts parsed from lines of a modded Boston corpus
+ * before they are added to a ParseModifiedBoston network.
+ * <p>
+ *
+ * Counts are held in mutable single-element double arrays so that counting
+ * an occurrence never boxes a value. Separate instances may be filled by
+ * separate threads and merged afterwards; as counts are sums, the merged
+ * result does not depend on how the lines were split between instances.
+ * Threads of a parallel parse count into SymbolCounts instead, which are
+ * added to a CorpusCounts once they are done.
+ */
+class CorpusCounts implements CountSink {
+
+  // Nodes of the grapheme-phoneme and phoneme-phoneme graphs, edge counts
+  // of each graph keyed by source then destination, the counts of each
+  // phone following a pair of phones keyed by TrigramModel.context(), and
+  // the frequencies of graphemes and phonemes, and the counts of each
+  // pronunciation of each word.
+  final Set<String> graphToPhonesNodes = new HashSet<>();
+  final Set<String> transitionNodes = new HashSet<>();
+  final Map<String, Map<String, double[]>> graphToPhonesCounts = new HashMap<>();
+  final Map<String, Map<String, double[]>> transitionCounts = new HashMap<>();
+  final Map<String, Map<String, double[]>> trigramCounts = new HashMap<>();
+  final Map<String, double[]> graphemeCounts = new HashMap<>();
+  final Map<String, double[]> phonemeCounts = new HashMap<>();
+  final Map<String, Map<String, double[]>> pronunciationCounts = new HashMap<>();
+
+  // Whether pronunciations are counted, which holds every distinct word.
+  final boolean collectPronunciations;
+
+  CorpusCounts() {
+    this(false);
+  }
+
+  /**
+   * Constructor for a CorpusCounts
+   * @param collectPronunciations whether to count the pronunciations of
+   *                              words for a lexicon
+   */
+  CorpusCounts(boolean collectPronunciations) {
+    this.collectPronunciations = collectPronunciations;
+  }
+
+  // Adds the current phone to all necessary graphs.
+  public void addPhoneToGraphs(String curr_phone) {
+    graphToPhonesNodes.add(curr_phone);
+    transitionNodes.add(curr_phone);
+  }
+
+  // Adds a grapheme to the grapheme-phoneme graph without counting it.
+  public void addGraphemeNode(String curr_word) {
+    graphToPhonesNodes.add(curr_word);
+  }
+
+  // Adds grapheme to all necessary graphs and updates its count.
+  public void addGrapheme(String curr_word) {
+    graphToPhonesNodes.add(curr_word);
+    increment(graphemeCounts, curr_word, 1.0);
+  }
+
+  // Updates phoneme count
+  public void addPhoneme(String phoneme) {
+    increment(phonemeCounts, phoneme, 1.0);
+  }
+
+  // Counts a mapping from a grapheme to a phone.
+  public void addEmission(String src, String dest) {
+    increment(graphToPhonesCounts, src, dest, 1.0);
+  }
+
+  // Counts a transition from one phone to the next.
+  public void addTransition(String src, String dest) {
+    increment(transitionCounts, src, dest, 1.0);
+  }
+
+  // Counts a phone following two others.
+  public void addTrigram(String first, String second, String dest) {
+    increment(trigramCounts, TrigramModel.context(first, second), dest, 1.0);
+  }
+
+  // Counts a word pronounced as hyphen-separated phones.
+  public void addPronunciation(String word, String phones) {
+    increment(pronunciationCounts, word, phones, 1.0);
+  }
+
+  public boolean collectsPronunciations() {
+    return collectPronunciations;
+  }
+
+  /**
+   * Adds every count of other to this.
+   * @param other the counts to add
+   * @modifies this
+   */
+  void merge(CorpusCounts other) {
+    graphToPhonesNodes.addAll(other.graphToPhonesNodes);
+    transitionNodes.addAll(other.transitionNodes);
+    mergeEdges(graphToPhonesCounts, other.graphToPhonesCounts);
+    mergeEdges(transitionCounts, other.transitionCounts);
+    mergeEdges(trigramCounts, other.trigramCounts);
+    mergeEdges(pronunciationCounts, other.pronunciationCounts);
+    for (Map.Entry<String, double[]> e : other.graphemeCounts.entrySet()) {
+      increment(graphemeCounts, e.getKey(), e.getValue()[0]);
+    }
+    for (Map.Entry<String, double[]> e : other.phonemeCounts.entrySet()) {
+      increment(phonemeCounts, e.getKey(), e.getValue()[0]);
+    }
+  }
+
+  private static void mergeEdges(Map<String, Map<String, double[]>> into,
+                                 Map<String, Map<String, double[]>> from) {
+    for (Map.Entry<String, Map<String, double[]>> row : from.entrySet()) {
+      for (Map.Entry<String, double[]> e : row.getValue().entrySet()) {
+        increment(into, row.getKey(), e.getKey(), e.getValue()[0]);
+      }
+    }
+  }
+
+  static void increment(Map<String, double[]> counts,
+                                String key, double amount) {
+    double[] count = counts.get(key);
+    if (count == null) {
+      count = new double[1];
+      counts.put(key, count);
+    }
+    count[0] += amount;
+  }
+
+  static void increment(Map<String, Map<String, double[]>> counts,
+                                String src, String dest, double amount) {
+    Map<String, double[]> row = counts.get(src);
+    if (row == null) {
+      row = new HashMap<>();
+      counts.put(src, row);
+    }
+    increment(row, dest, amount);
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Receives the counts ParseModifiedBoston.parseLine parses from a line of
+ * a modded Boston corpus.
+ * <p>
+ *
+ * CorpusCounts keeps the counts keyed by symbol, ready to be added to a
+ * network, while SymbolCounts keeps them in primitive tables keyed by
+ * interned IDs for the threads of a parallel parse.
+ */
+interface CountSink {
+
+  // Adds a phone to the grapheme-phoneme and phoneme-phoneme graphs.
+  void addPhoneToGraphs(String phone);
+
+  // Adds a grapheme to the grapheme-phoneme graph without counting it.
+  void addGraphemeNode(String grapheme);
+
+  // Adds a grapheme to the grapheme-phoneme graph and counts it.
+  void addGrapheme(String grapheme);
+
+  // Counts a phone.
+  void addPhoneme(String phone);
+
+  // Counts a mapping from a grapheme to a phone.
+  void addEmission(String src, String dest);
+
+  // Counts a transition from one phone to the next.
+  void addTransition(String src, String dest);
+
+  // Counts a phone following two others.
+  void addTrigram(String first, String second, String dest);
+
+  // Counts a word pronounced as hyphen-separated phones.
+  void addPronunciation(String word, String phones);
+
+  // Returns whether pronunciations are counted, so that parsing need not
+  // build them otherwise.
+  boolean collectsPronunciations();
+}
@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of a GraphemeToPhonemeCalculator or SimpleGraphemePhoneme:
+ * call counts, the latency distribution of calls, how many results were
+ * null or fell back to a shorter path, and how many hypotheses the decoder
+ * extended per word.
+ * <p>
+ *
+ * Counts are kept in striped LongAdders and latencies in a lock-free
+ * LatencyHistogram, so recording never blocks the threads being measured.
+ * Calculators only record while metrics are attached to them; otherwise
+ * the cost on each call is a single null check.
+ * <p>
+ *
+ * Metrics may be published to the platform MBean server with register(),
+ * after which they appear under the domain "g2p" in any JMX console.
+ */
+public class DecoderMetrics implements DecoderMetricsMBean {
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder nulls = new LongAdder();
+  private final LongAdder decoded = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+  private final LongAdder expanded = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  /**
+   * Records a call to a calculator.
+   * @param nanos how long the call took
+   * @param failed whether the call returned null
+   * @modifies this
+   */
+  public void recordCall(long nanos, boolean failed) {
+    calls.increment();
+    if (failed) {
+      nulls.increment();
+    }
+    latencies.record(nanos);
+  }
+
+  /**
+   * Records a word run through the decoder.
+   * @param hypotheses the number of hypotheses extended decoding the word
+   * @param fellBack whether the returned path omits the last grapheme
+   * @modifies this
+   */
+  public void recordDecode(long hypotheses, boolean fellBack) {
+    decoded.increment();
+    expanded.add(hypotheses);
+    if (fellBack) {
+      fallbacks.increment();
+    }
+  }
+
+  /**
+   * Publishes these metrics to the platform MBean server.
+   * @param name the name distinguishing these metrics from others
+   *             published, such as "viterbi"
+   * @return Returns the object name the metrics were registered under
+   * @throws JMException if the name is invalid or already registered
+   */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("g2p", "name", ObjectName.quote(name));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(this, objectName);
+    return objectName;
+  }
+
+  /**
+   * Removes metrics published by register() from the platform MBean server.
+   * @param objectName the name returned by register()
+   * @throws JMException if nothing is registered under objectName
+   */
+  public static void unregister(ObjectName objectName) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+  }
+
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  public long getNullResults() {
+    return nulls.sum();
+  }
+
+  public double getNullRate() {
+    return ratio(nulls.sum(), calls.sum());
+  }
+
+  public long getDecodedWords() {
+    return decoded.sum();
+  }
+
+  public long getFallbackResults() {
+    return fallbacks.sum();
+  }
+
+  public double getFallbackRate() {
+    return ratio(fallbacks.sum(), decoded.sum());
+  }
+
+  public long getExpandedHypotheses() {
+    return expanded.sum();
+  }
+
+  public double getMeanExpandedHypotheses() {
+    return ratio(expanded.sum(), decoded.sum());
+  }
+
+  public double getMeanLatencyMicros() {
+    return latencies.getMean() / 1e3;
+  }
+
+  public double getP50LatencyMicros() {
+    return latencies.getPercentile(50) / 1e3;
+  }
+
+  public double getP99LatencyMicros() {
+    return latencies.getPercentile(99) / 1e3;
+  }
+
+  public double getMaxLatencyMicros() {
+    return latencies.getMax() / 1e3;
+  }
+
+  /**
+   * @return Returns the latencies of calls in nanoseconds
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  public void reset() {
+    calls.reset();
+    nulls.reset();
+    decoded.reset();
+    fallbacks.reset();
+    expanded.reset();
+    latencies.reset();
+  }
+
+  // Returns n / d, or 0 if d is 0.
+  private static double ratio(long n, long d) {
+    return d == 0 ? 0.0 : (double) n / d;
+  }
+}
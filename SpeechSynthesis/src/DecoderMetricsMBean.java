@@ -0,0 +1,75 @@
+/**
+ * The management interface of DecoderMetrics, through which a running
+ * calculator may be observed over JMX. Latencies are in microseconds.
+ */
+public interface DecoderMetricsMBean {
+
+  /**
+   * @return Returns the number of words asked for, including cache hits
+   */
+  long getCalls();
+
+  /**
+   * @return Returns the number of calls that returned null
+   */
+  long getNullResults();
+
+  /**
+   * @return Returns the fraction of calls that returned null
+   */
+  double getNullRate();
+
+  /**
+   * @return Returns the number of words run through the decoder
+   */
+  long getDecodedWords();
+
+  /**
+   * @return Returns the number of decoded words for which no path covered
+   *         the last grapheme, so the path ending on the second to last
+   *         grapheme was returned instead
+   */
+  long getFallbackResults();
+
+  /**
+   * @return Returns the fraction of decoded words that fell back to a
+   *         path omitting the last grapheme
+   */
+  double getFallbackRate();
+
+  /**
+   * @return Returns the total number of hypotheses the decoder has
+   *         extended
+   */
+  long getExpandedHypotheses();
+
+  /**
+   * @return Returns the mean number of hypotheses extended per decoded word
+   */
+  double getMeanExpandedHypotheses();
+
+  /**
+   * @return Returns the mean latency of a call
+   */
+  double getMeanLatencyMicros();
+
+  /**
+   * @return Returns the median latency of a call
+   */
+  double getP50LatencyMicros();
+
+  /**
+   * @return Returns the 99th percentile latency of a call
+   */
+  double getP99LatencyMicros();
+
+  /**
+   * @return Returns the largest latency of a call
+   */
+  double getMaxLatencyMicros();
+
+  /**
+   * Discards every count and latency recorded so far.
+   */
+  void reset();
+}
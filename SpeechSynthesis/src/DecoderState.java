@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * Reusable scratch space for ViterbiDecoder and TrigramDecoder, so that
+ * decoding a word need not allocate.
+ * <p>
+ *
+ * A state holds the grapheme IDs of the word being decoded, its score and
+ * backpointer tables laid out column after column in flat arrays, and a
+ * buffer for callers to receive phone IDs in. Every array only ever grows,
+ * to the size needed by the longest word seen, after which decoding runs
+ * without allocating at all.
+ * <p>
+ *
+ * A state may be used by one thread at a time. current() returns a state
+ * private to the calling thread, which is what the calculators use.
+ */
+public final class DecoderState {
+
+  private static final ThreadLocal<DecoderState> CURRENT =
+          ThreadLocal.withInitial(DecoderState::new);
+
+  // Grapheme IDs of the word, and where each column begins in the tables.
+  int[] obs = new int[16];
+  int[] columnStarts = new int[17];
+
+  // Scores and backpointers of every column, one cell per emission, or
+  // per pair of emissions of adjacent columns when decoding trigrams.
+  double[] scores = new double[256];
+  int[] backpointers = new int[256];
+
+  // Scratch for pruning a column to its beam width, and for the trigram
+  // context rows of the entries of a column.
+  double[] sorted = new double[64];
+  int[] contexts = new int[64];
+
+  private int[] phones = new int[16];
+
+  /**
+   * @return Returns the state private to the calling thread
+   */
+  public static DecoderState current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns a buffer of phone IDs owned by this state, for passing to
+   * ViterbiDecoder.decode. The buffer is reused by later calls.
+   * @param capacity the number of phone IDs the buffer must hold
+   * @return Returns a buffer of at least capacity entries
+   * @modifies this
+   */
+  public int[] phones(int capacity) {
+    if (phones.length < capacity) {
+      phones = new int[grow(phones.length, capacity)];
+    }
+    return phones;
+  }
+
+  // Splits hyphen-segmented graphemes as String.split("-") does, dropping
+  // trailing empty graphemes unless there is no hyphen at all, and writes
+  // their IDs into obs. Returns the number of graphemes kept.
+  int split(CharSequence graphemes, SymbolTable table) {
+    int len = graphemes.length();
+    int n = 1;
+    for (int i = 0; i < len; i++) {
+      if (graphemes.charAt(i) == '-') {
+        n++;
+      }
+    }
+    ensureWord(n);
+
+    int count = 0;
+    int kept = 0;
+    int start = 0;
+    for (int i = 0; i <= len; i++) {
+      if (i == len || graphemes.charAt(i) == '-') {
+        obs[count++] = table.id(graphemes, start, i);
+        if (i > start) {
+          kept = count;
+        }
+        start = i + 1;
+      }
+    }
+    return count > 1 ? kept : count;
+  }
+
+  // Makes room for a word of n graphemes.
+  void ensureWord(int n) {
+    if (obs.length < n) {
+      obs = Arrays.copyOf(obs, grow(obs.length, n));
+    }
+    if (columnStarts.length < n + 1) {
+      columnStarts = new int[grow(columnStarts.length, n + 1)];
+    }
+  }
+
+  // Makes room for the given number of cells, and for a column of the
+  // given width.
+  void ensureCells(int cells, int width) {
+    if (scores.length < cells) {
+      scores = new double[grow(scores.length, cells)];
+      backpointers = new int[scores.length];
+    }
+    if (sorted.length < width) {
+      sorted = new double[grow(sorted.length, width)];
+      contexts = new int[sorted.length];
+    }
+  }
+
+  // Returns a capacity of at least needed, at least doubling current.
+  private static int grow(int current, int needed) {
+    return Math.max(needed, current * 2);
+  }
+}
@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A SymbolTable held in a direct buffer outside of the heap, so that tables
+ * of millions of symbols add nothing for the garbage collector to trace.
+ * <p>
+ *
+ * The buffer holds an open-addressed table of (ID + 1) by hash, the hash of
+ * each symbol, the offset of each symbol's characters, and the characters
+ * of every symbol back to back as UTF-16 code units, so that lookups compare
+ * characters in place. Only symbol(int) creates a String.
+ */
+class DirectSymbolTable extends SymbolTable {
+
+  private final int size;
+  private final int mask;
+  private final IntBuffer slots;
+  private final IntBuffer hashes;
+  private final IntBuffer offsets;
+  private final CharBuffer chars;
+  private final long bytes;
+
+  /**
+   * Constructor for a DirectSymbolTable, reading the symbols one at a time
+   * as they are laid out in a model file
+   * @param buffer holds each symbol as an int byte length followed by UTF-8
+   *               bytes, positioned at the first symbol. It is left
+   *               positioned after the last.
+   * @param size the number of symbols to intern, in the order their IDs
+   *             are assigned
+   * @throws IllegalArgumentException if a symbol is repeated, or the table
+   *         would exceed the 2GB limit of a direct buffer
+   */
+  DirectSymbolTable(ByteBuffer buffer, int size) {
+    this.size = size;
+    int capacity = 2;
+    while (capacity < size * 2) {
+      capacity <<= 1;
+    }
+    this.mask = capacity - 1;
+
+    // A symbol has no more UTF-16 code units than it has UTF-8 bytes.
+    long maxChars = 0;
+    int maxBytes = 0;
+    ByteBuffer lengths = buffer.duplicate().order(buffer.order());
+    for (int id = 0; id < size; id++) {
+      int length = lengths.getInt();
+      lengths.position(lengths.position() + length);
+      maxChars += length;
+      maxBytes = Math.max(maxBytes, length);
+    }
+    long intBytes = 4L * (capacity + size + size + 1);
+    if (intBytes + 2 * maxChars > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Symbol table too large: "
+              + (intBytes + 2 * maxChars) + " bytes");
+    }
+
+    ByteBuffer table = ByteBuffer.allocateDirect((int) (intBytes + 2 * maxChars))
+            .order(ByteOrder.nativeOrder());
+    this.slots = slice(table, 0, capacity).asIntBuffer();
+    this.hashes = slice(table, 4 * capacity, size).asIntBuffer();
+    this.offsets = slice(table, 4 * (capacity + size), size + 1).asIntBuffer();
+    this.chars = table.position((int) intBytes).slice().order(ByteOrder.nativeOrder()).asCharBuffer();
+
+    byte[] bytes = new byte[maxBytes];
+    int offset = 0;
+    for (int id = 0; id < size; id++) {
+      int length = buffer.getInt();
+      buffer.get(bytes, 0, length);
+      String symbol = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      if (id(symbol) >= 0) {
+        throw new IllegalArgumentException();
+      }
+      chars.put(offset, symbol.toCharArray());
+      offsets.put(id, offset);
+      offset += symbol.length();
+      offsets.put(id + 1, offset);
+
+      int h = symbol.hashCode();
+      hashes.put(id, h);
+      int slot = spread(h) & mask;
+      while (slots.get(slot) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots.put(slot, id + 1);
+    }
+    this.bytes = table.capacity();
+  }
+
+  // Returns a view of count ints of buffer, starting at byte "at".
+  private static ByteBuffer slice(ByteBuffer buffer, int at, int count) {
+    ByteBuffer res = buffer.duplicate();
+    res.position(at);
+    res.limit(at + 4 * count);
+    return res.slice().order(ByteOrder.nativeOrder());
+  }
+
+  public int id(CharSequence symbol, int start, int end) {
+    int h = hash(symbol, start, end);
+    int slot = spread(h) & mask;
+    int id;
+    while ((id = slots.get(slot) - 1) >= 0) {
+      if (hashes.get(id) == h && matches(id, symbol, start, end)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  public String symbol(int id) {
+    int offset = offsets.get(id);
+    char[] res = new char[offsets.get(id + 1) - offset];
+    chars.get(offset, res);
+    return new String(res);
+  }
+
+  public long getFootprint() {
+    return bytes;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Returns whether symbol id holds exactly the characters [start, end)
+  // of symbol.
+  private boolean matches(int id, CharSequence symbol, int start, int end) {
+    int offset = offsets.get(id);
+    if (offsets.get(id + 1) - offset != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (chars.get(offset++) != symbol.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
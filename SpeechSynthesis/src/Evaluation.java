@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The accumulated precision and recall of one calculator over a gold
+ * standard, together with how long it took to decode each word.
+ * <p>
+ *
+ * Entries may be scored from any number of threads at once; counts are
+ * kept in striped adders and latencies in a lock-free LatencyHistogram.
+ */
+public class Evaluation {
+
+  private final LongAdder tp = new LongAdder();
+  private final LongAdder fp = new LongAdder();
+  private final LongAdder fn = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private volatile long elapsedNanos;
+
+  /**
+   * Scores every entry of a gold standard in parallel across all available
+   * cores.
+   * @param goldPath a gold standard of lines in the form
+   *                 graphemes phone1 idx1 ... phoneN idxN //
+   * @param calculator calculates the hyphen-separated phones of graphemes
+   * @return Returns the evaluation of calculator
+   */
+  public static Evaluation evaluate(Path goldPath, Function<String, String> calculator)
+          throws IOException {
+    Evaluation res = new Evaluation();
+    long start = System.nanoTime();
+    try (Stream<String> lines = Files.lines(goldPath)) {
+      lines.parallel().forEach(line -> {
+        String[] word_and_transcription = line.split(" ", 2);
+        long begin = System.nanoTime();
+        String attempt = calculator.apply(word_and_transcription[0]);
+        long nanos = System.nanoTime() - begin;
+        res.score(attempt, word_and_transcription[1].split(" "), nanos);
+      });
+    }
+    res.elapsedNanos = System.nanoTime() - start;
+    return res;
+  }
+
+  /**
+   * Scores an attempted pronunciation against a gold transcription.
+   * @param attempt the hyphen-separated phones decoded for the word, or
+   *                null if none were
+   * @param gold_phones the gold transcription in the form
+   *                    phone1 idx1 phone2 idx2 ... phoneN idxN //
+   * @param nanos how long the attempt took to decode
+   * @modifies this
+   */
+  public void score(String attempt, String[] gold_phones, long nanos) {
+    latencies.record(nanos);
+    if (attempt == null) {
+      fn.add(gold_phones.length / 2);
+      return;
+    }
+
+    String[] attempt_phones = attempt.split("-");
+    fn.add((gold_phones.length / 2) - (attempt_phones.length));
+    int last_idx = 0;
+    for (int i = 0; i < gold_phones.length - 1; i += 2) {
+      String phone = gold_phones[i];
+      String idx = gold_phones[i + 1];
+      int currIdx = Integer.parseInt(idx);
+      if (attempt_phones.length > currIdx) {
+        if (attempt_phones[currIdx].equals(phone)) {
+          tp.increment();
+        } else if (last_idx != currIdx) {
+          fp.increment();
+        }
+      }
+      last_idx = currIdx;
+    }
+  }
+
+  /**
+   * @return Returns the number of true positives
+   */
+  public long getTruePositives() {
+    return tp.sum();
+  }
+
+  /**
+   * @return Returns the number of false positives
+   */
+  public long getFalsePositives() {
+    return fp.sum();
+  }
+
+  /**
+   * @return Returns the number of false negatives
+   */
+  public long getFalseNegatives() {
+    return fn.sum();
+  }
+
+  /**
+   * @return Returns the precision of the scored attempts
+   */
+  public double getPrecision() {
+    long truePositives = tp.sum();
+    return (double) truePositives / (double) (truePositives + fp.sum());
+  }
+
+  /**
+   * @return Returns the recall of the scored attempts
+   */
+  public double getRecall() {
+    long truePositives = tp.sum();
+    return (double) truePositives / (double) (truePositives + fn.sum());
+  }
+
+  /**
+   * @return Returns the number of words scored per second by evaluate(),
+   *         or 0 if this evaluation was not made by it
+   */
+  public double getWordsPerSecond() {
+    long nanos = elapsedNanos;
+    return nanos > 0 ? latencies.getCount() / (nanos / 1e9) : 0.0;
+  }
+
+  /**
+   * @return Returns the decode latencies of the scored words
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+}
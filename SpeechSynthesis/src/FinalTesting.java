@@ -1,100 +1,89 @@
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
- * Calculates the precision and recall of this model.
+ * Calculates the precision and recall of this model and of the baseline,
+ * along with their throughput and per-word decode latencies. When the
+ * model is trained from the corpus, its trigram model is evaluated too.
+ * A tiered calculator answering confident words greedily is evaluated
+ * along with the number of words each of its tiers handled, as is a
+ * calculator looking the words of the corpus up in a lexicon first.
+ * <p>
+ *
+ * Gold standard entries are scored in parallel across all available
+ * cores, one calculator at a time so that each one's throughput is
+ * measured on its own.
  */
 public class FinalTesting {
 
-  public static Integer tp = 0;
-  public static Integer fp = 0;
-  public static Integer fn = 0;
-
-  public static Integer tp_base = 0;
-  public static Integer fp_base = 0;
-  public static Integer fn_base = 0;
+  // Margin a word's graphemes must exceed to be answered greedily by the
+  // tiered calculator.
+  private static final double GREEDY_MARGIN = 0.5;
 
   public static void main(String[] args) throws IOException {
 
-    String corpusPath = new File("")
-            .getAbsolutePath()
-            .concat("/SpeechSynthesis/corpus_test.txt");
-    File corpusFile = new File(corpusPath);
-
-    BufferedReader readFile = new BufferedReader(new FileReader(corpusFile));
-    ParseModifiedBoston pmb = new ParseModifiedBoston();
-    pmb.parseFile(readFile);
-
-    GraphemeToPhonemeCalculator gp_calculator = new GraphemeToPhonemeCalculator(pmb.getNetwork(),
-            pmb.getTransitions(),pmb.getGraphemes(), pmb.getNormalizedPhones());
-    SimpleGraphemePhoneme sgp_calculator = new SimpleGraphemePhoneme(pmb.getNetwork(),
-            pmb.getTransitions(),pmb.getGraphemes(), pmb.getNormalizedPhones());
+    // A model file may be given to skip parsing and training on the corpus.
+    CompiledModel model;
+    TrigramModel trigrams = null;
+    Lexicon lexicon = null;
+    if (args.length > 0) {
+      model = ModelFile.map(Paths.get(args[0]));
+    } else {
+      String corpusPath = new File("")
+              .getAbsolutePath()
+              .concat("/SpeechSynthesis/corpus_test.txt");
+      File corpusFile = new File(corpusPath);
 
-    String goldPath = new File("").getAbsolutePath().concat("/SpeechSynthesis/gold_standard.txt");
-    File goldFile = new File(goldPath);
-    BufferedReader readGoldFile = new BufferedReader(new FileReader(goldFile));
+      BufferedReader readFile = new BufferedReader(new FileReader(corpusFile));
+      ParseModifiedBoston pmb = new ParseModifiedBoston();
+      pmb.setCollectLexicon(true);
+      pmb.parseFile(readFile);
+      model = pmb.compile();
+      trigrams = pmb.compileTrigrams(model);
+      lexicon = pmb.compileLexicon();
+    }
 
-    String line;
-    while ((line = readGoldFile.readLine()) != null) {
-      String[] word_and_transcription = line.split(" ", 2);
-      String attempt = gp_calculator.calculatePhoneme(word_and_transcription[0]);
-      String baseline = sgp_calculator.getSimpleMapping(word_and_transcription[0]);
-      String[] gold_phones = word_and_transcription[1].split(" ");
+    GraphemeToPhonemeCalculator gp_calculator = new GraphemeToPhonemeCalculator(model);
+    SimpleGraphemePhoneme sgp_calculator = new SimpleGraphemePhoneme(model);
 
-      calculateStats(attempt, gold_phones, false);
-      calculateStats(baseline, gold_phones, true);
-
-    }
+    Path goldPath = Paths.get(new File("").getAbsolutePath()
+            .concat("/SpeechSynthesis/gold_standard.txt"));
 
     System.out.println("Viterbi Algorithm:");
-    System.out.println("TP : " + tp + " FP : " + fp + " FN : " + fn);
-    double prec = ((double) (tp) / (double) (tp + fp));
-    double rec = ((double) (tp) / (double) (tp + fn));
-    System.out.println("Precision: " + prec + " Recall: " + rec);
+    report(Evaluation.evaluate(goldPath, gp_calculator::calculatePhoneme));
+    if (trigrams != null) {
+      GraphemeToPhonemeCalculator trigram_calculator = new GraphemeToPhonemeCalculator(model);
+      trigram_calculator.setTrigramModel(trigrams);
+      System.out.println("Trigram Viterbi Algorithm:");
+      report(Evaluation.evaluate(goldPath, trigram_calculator::calculatePhoneme));
+    }
+    GraphemeToPhonemeCalculator tiered_calculator = new GraphemeToPhonemeCalculator(model);
+    tiered_calculator.setGreedyMargin(GREEDY_MARGIN);
+    System.out.println("Tiered Algorithm:");
+    report(Evaluation.evaluate(goldPath, tiered_calculator::calculatePhoneme));
+    TieredDecoder tiers = tiered_calculator.getTiers();
+    System.out.println("Greedy: " + tiers.getGreedyWords()
+            + " Viterbi: " + tiers.getEscalatedWords());
+    if (lexicon != null) {
+      GraphemeToPhonemeCalculator lexicon_calculator = new GraphemeToPhonemeCalculator(model);
+      lexicon_calculator.setLexicon(lexicon);
+      System.out.println("Lexicon then Viterbi Algorithm:");
+      report(Evaluation.evaluate(goldPath, lexicon_calculator::calculatePhoneme));
+    }
     System.out.println("Baseline Algorithm:");
-    System.out.println("TP : " + tp_base + " FP : " + fp_base + " FN : " + fn_base);
-    prec = ((double) (tp_base) / (double) (tp_base + fp_base));
-    rec = ((double) (tp_base) / (double) (tp_base + fn_base));
-    System.out.println("Precision: " + prec + " Recall: " + rec);
+    report(Evaluation.evaluate(goldPath, sgp_calculator::getSimpleMapping));
   }
 
-  private static void calculateStats(String attempt, String[] gold_phones, boolean base) {
-    if (attempt == null) {
-      if (!base) {
-        fn += (gold_phones.length / 2);
-      } else {
-        fn_base += (gold_phones.length / 2);
-      }
-    } else {
-      String[] attempt_phones = attempt.split("-");
-      if (!base) {
-        fn += ((gold_phones.length / 2) - (attempt_phones.length));
-      } else {
-        fn_base += ((gold_phones.length / 2) - (attempt_phones.length));
-      }
-      int last_idx = 0;
-      for (int i = 0; i < gold_phones.length - 1; i += 2) {
-        String phone = gold_phones[i];
-        String idx = gold_phones[i + 1];
-        int currIdx = Integer.parseInt(idx);
-        if (attempt_phones.length > currIdx) {
-          if (attempt_phones[currIdx].equals(phone)) {
-            if (!base) {
-              tp++;
-            } else {
-              tp_base++;
-            }
-          } else {
-            if (last_idx != currIdx) {
-              if (!base) {
-                fp++;
-              } else {
-                fp_base++;
-              }
-            }
-          }
-        }
-        last_idx = currIdx;
-      }
-    }
+  private static void report(Evaluation eval) {
+    System.out.println("Words/sec: " + eval.getWordsPerSecond());
+    System.out.println("TP : " + eval.getTruePositives()
+            + " FP : " + eval.getFalsePositives()
+            + " FN : " + eval.getFalseNegatives());
+    System.out.println("Precision: " + eval.getPrecision() + " Recall: " + eval.getRecall());
+    LatencyHistogram latencies = eval.getLatencies();
+    System.out.println("Latency (us) p50: " + latencies.getPercentile(50) / 1e3
+            + " p99: " + latencies.getPercentile(99) / 1e3
+            + " max: " + latencies.getMax() / 1e3);
   }
 }
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Graph is an implementation of a generic, directed, multi-labeled graph.
@@ -11,6 +12,12 @@ import java.util.*;
  * Nodes are represented simply as the the data they contain, whereas edges
  * are represented as a label/weight and a direction. Edge direction is specified
  * when a new connection between two nodes is made.
+ * <p>
+ *
+ * Graphs are not synchronized. Any number of threads may read a graph
+ * concurrently as long as no thread modifies it, e.g. once training has
+ * completed and the graph has been safely published. Decoders do not read
+ * graphs at all; they compile them into a CompiledModel beforehand.
  *
  * @author Tam Dang
  */
@@ -193,6 +200,15 @@ public class Graph<V, W> {
         return Collections.unmodifiableSet(res);
     }
 
+    /**
+     * Returns a frozen copy of this graph for read-heavy use
+     * @param weight Converts an edge weight to a double
+     * @return Returns a read-only, CSR-backed copy of this graph with primitive
+     *         edge weights. Later changes to this graph are not reflected in the copy.
+     */
+    public ImmutableGraph<V> freeze(ToDoubleFunction<? super W> weight) {
+        return ImmutableGraph.of(this, weight);
+    }
 
     public String toString() {
         Set<V> nodes = getNodes();
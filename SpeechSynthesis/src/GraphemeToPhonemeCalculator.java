@@ -1,10 +1,34 @@
 
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Serves as the model for grapheme-to-phoneme translation.
- * This class provides utilities for creating the Viterbi result
- * matrix and functionality for extracting the most probable result.
+ * This class decodes sequences of graphemes with a dynamic-programming
+ * Viterbi decoder and extracts the most probable result.
+ * <p>
+ *
+ * The network is compiled into an immutable CompiledModel when the
+ * calculator is constructed, so later changes to the graphs it was built
+ * from are not seen by the calculator. Calculators are safe to use from
+ * any number of threads at once, including while their decoding options
+ * are being changed; each call decodes with the options in effect when
+ * it began.
+ * <p>
+ *
+ * An optional PronunciationCache may be placed in front of the decoder.
+ * It is invalidated whenever the model or the decoding options change.
+ * DecoderMetrics may likewise be attached to observe calls and decoding
+ * work at runtime.
+ * <p>
+ *
+ * A TrigramModel may be attached to condition each phone on the two phones
+ * before it, in which case words are decoded by a TrigramDecoder instead.
+ * A greedy TieredDecoder may be placed in front of either, answering the
+ * words whose every grapheme has a clear most probable phone. A Lexicon
+ * of words whose pronunciations are known exactly may be placed in front
+ * of every decoder, so that those words are looked up rather than decoded.
  *
  * @author Tam Dang.
  */
@@ -14,6 +38,17 @@ public class GraphemeToPhonemeCalculator {
   private Graph<String, Double> transitions;
   private Map<String, Double> graphemes;
   private Map<String, Double> phonemes;
+  private volatile CompiledModel model;
+  private volatile ViterbiDecoder decoder;
+  private volatile TrigramDecoder trigramDecoder;
+  private volatile TieredDecoder tiers;
+  private volatile LatticeDecoder lattice;
+  private volatile Lexicon lexicon;
+  private volatile PronunciationCache cache;
+  private volatile DecoderMetrics metrics;
+  private ScoringMode mode = ScoringMode.PROBABILITY;
+  private int beamWidth = Integer.MAX_VALUE;
+  private double beamThreshold = Double.POSITIVE_INFINITY;
 
   /**
    * Constructor for a GraphemeToPhonemeCalculator
@@ -31,105 +66,387 @@ public class GraphemeToPhonemeCalculator {
     this.graphemes = g;
     this.transitions = t;
     this.phonemes = p;
+    this.model = CompiledModel.compile(gToP, t, g, p);
+    this.decoder = new ViterbiDecoder(model);
   }
 
   /**
-   * Constructor for a GraphemeToPhonemeCalculator
+   * Constructor for a GraphemeToPhonemeCalculator over an already compiled network
+   * @param model the compiled grapheme-to-phoneme network
+   */
+  public GraphemeToPhonemeCalculator(CompiledModel model) {
+    this.model = model;
+    this.decoder = new ViterbiDecoder(model);
+  }
+
+  /**
+   * Calculates the most probable sequence of phonemes for a grapheme.
    * @param grapheme a grapheme in which to return a sequence of
    *                 phonemes for
    */
   public String calculatePhoneme(String grapheme) {
-    String[] obs = grapheme.split("-");
-    Map<String, IndexAndProbability> v_matrix = new HashMap<>();
-    calculateMatrix(obs, 0, v_matrix, null, null);
-    String result = null;
-    String sec_result = null;
-    double max_prob = 0.0;
-    double sec_max_prob = 0.0;
-    for (String mapping : v_matrix.keySet()) {
-      IndexAndProbability mappingRes = v_matrix.get(mapping);
-      if (mappingRes.index == obs.length - 1 && mappingRes.prob > max_prob) {
-        max_prob = mappingRes.prob;
-        result = mapping;
-      } else if (mappingRes.index == obs.length - 2 && mappingRes.prob > sec_max_prob) {
-        sec_max_prob = mappingRes.prob;
-        sec_result = mapping;
-      }
+    DecoderMetrics m = metrics;
+    if (m == null) {
+      return lookup(grapheme);
     }
+    long start = System.nanoTime();
+    String res = lookup(grapheme);
+    m.recordCall(System.nanoTime() - start, res == null);
+    return res;
+  }
 
-    if (result != null) {
-      return result;
-    }
-    return sec_result;
-  }
-
-  /**
-   * Calculates a Viterbi results matrix. Each solution in the matrix
-   * is attached to its probability. Returns the resulting matrix through
-   * the matrix parameter.
-   * @param obs The observed states
-   * @param i The current iteration (represents the index of the phoneme
-   *          to be inserted, e.g. currently on the 'ith' step).
-   * @param matrix A map representing the Viterbi results matrix, but uses
-   *               a map from string to IndexAndProbability instead of
-   *               a 2D-array.
-   * @param currentBuild A solution that is currently being built.
-   * @param last_phone The previous phone to allow for a transitional
-   *                   probability to be extracted (null on the first iteration).
-   */
-  private void calculateMatrix(String[] obs, int i,
-                               Map<String, IndexAndProbability> matrix,
-                               String currentBuild, String last_phone) {
-    if (i < obs.length) {
-      Set<String> current_phones = graphToPhones.getChildrenOf(obs[i]);
-      if (current_phones != null) {
-        Iterator<String> phones_it = current_phones.iterator();
-        String next;
-        String curr_phone;
-        for (int k = 0; k < current_phones.size(); k++) {
-
-          // a phone of obs[i]
-          curr_phone = phones_it.next();
-          if (currentBuild == null || last_phone == null) {
-
-            // curr phone is a starting phone
-            next = curr_phone;
-            double init_prob = graphToPhones.getEdgeBetween(obs[i], curr_phone);
-            if (phonemes.containsKey(curr_phone)) {
-              init_prob = phonemes.get(curr_phone);
-            }
-            matrix.put(curr_phone, new IndexAndProbability(0, init_prob));
-            calculateMatrix(obs, i + 1, matrix, next, curr_phone);
-
-          } else {
-
-            double currProb = 1.0;
-            if (matrix.containsKey(currentBuild)) {
-              currProb *= ((matrix.get(currentBuild)).prob);
-              if (transitions.getChildrenOf(last_phone).contains(curr_phone)) {
-                currProb *= (transitions.getEdgeBetween(last_phone, curr_phone));
-              } else {
-                currProb = 0;
-              }
-              if (currProb > 0) {
-                next = currentBuild + "-" + curr_phone;
-                matrix.put(next, new IndexAndProbability(i, currProb));
-                calculateMatrix(obs, i + 1, matrix, next, curr_phone);
-              }
-            }
-          }
-        }
+  // Looks a grapheme up in the cache, if there is one, decoding it otherwise.
+  private String lookup(String grapheme) {
+    PronunciationCache c = cache;
+    if (c != null) {
+      return c.get(grapheme, this::decode);
+    }
+    return decode(grapheme);
+  }
+
+  // Decodes a grapheme without consulting the cache, in the scratch space
+  // of the calling thread.
+  private String decode(String grapheme) {
+    Lexicon l = lexicon;
+    if (l != null) {
+      int rank = l.find(grapheme, 0, grapheme.length());
+      if (rank >= 0) {
+        return l.pronunciation(rank);
+      }
+    }
+    DecoderState state = DecoderState.current();
+    int[] phones = state.phones(grapheme.length() + 1);
+    TieredDecoder g = tiers;
+    if (g != null) {
+      int count = g.decode(grapheme, state, phones);
+      if (count >= 0) {
+        return g.toPhones(phones, count);
       }
     }
+    TrigramDecoder t = trigramDecoder;
+    if (t != null) {
+      int count = t.decode(grapheme, state, phones);
+      return count < 0 ? null : t.toPhones(phones, count);
+    }
+    ViterbiDecoder d = decoder;
+    int count = d.decode(grapheme, state, phones);
+    return count < 0 ? null : d.toPhones(phones, count);
+  }
+
+  /**
+   * Calculates the most probable sequence of phonemes for each of a batch
+   * of graphemes, decoding them in parallel across all available cores.
+   * @param graphemes hyphen-segmented graphemes to return sequences of
+   *                  phonemes for
+   * @return Returns the sequences of phonemes in the same order as the
+   *         graphemes they were calculated for, where an entry is null if
+   *         calculatePhoneme would have returned null
+   */
+  public List<String> calculatePhonemes(List<String> graphemes) {
+    return graphemes.parallelStream()
+            .map(this::calculatePhoneme)
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Lazily calculates the most probable sequence of phonemes for each
+   * grapheme of a stream. The graphemes are decoded in parallel, while the
+   * resulting stream keeps the encounter order of the input.
+   * @param graphemes hyphen-segmented graphemes to return sequences of
+   *                  phonemes for
+   * @return Returns a stream of the sequences of phonemes
+   */
+  public Stream<String> calculatePhonemes(Stream<String> graphemes) {
+    return graphemes.parallel().map(this::calculatePhoneme);
+  }
+
+  /**
+   * Calculates the n most probable sequences of phonemes for a grapheme
+   * from a single decoding pass.
+   * @param grapheme a grapheme in which to return sequences of
+   *                 phonemes for
+   * @param n the maximum number of sequences to return
+   * @return Returns the sequences with their probabilities, most probable
+   *         first
+   * @throws IllegalArgumentException if n is less than 1
+   */
+  public List<Pronunciation> calculateNBest(String grapheme, int n) {
+    String[] obs = grapheme.split("-");
+    return decoder.decodeNBest(obs, n);
+  }
+
+  /**
+   * Calculates the most probable pronunciation of a word that has not been
+   * segmented into graphemes. The segmentation and the phones are chosen
+   * together, in a single pass over every way of splitting the word into
+   * graphemes of the model. The cache and beam are not used.
+   * @param word an unsegmented word, such as "about"
+   * @return Returns the pronunciation, whose graphemes give the chosen
+   *         segmentation, or null if the word cannot be segmented
+   */
+  public Pronunciation calculatePronunciation(String word) {
+    LatticeDecoder l = lattice;
+    if (l == null) {
+      l = buildLattice();
+    }
+    return l.decode(word.toLowerCase());
+  }
+
+  // Builds the lattice decoder on first use, as its trie of graphemes grows
+  // with the model.
+  private synchronized LatticeDecoder buildLattice() {
+    if (lattice == null) {
+      lattice = new LatticeDecoder(model, mode);
+    }
+    return lattice;
+  }
+
+  /**
+   * Sets the arithmetic used to score paths. Scoring in ScoringMode.LOG
+   * keeps long words from underflowing, which would otherwise discard
+   * their paths. Defaults to ScoringMode.PROBABILITY.
+   * @param mode the scoring mode to decode with
+   * @modifies this
+   */
+  public synchronized void setScoringMode(ScoringMode mode) {
+    setDecoder(new ViterbiDecoder(model, mode, beamWidth, beamThreshold, metrics));
+    this.lattice = null;
+    this.mode = mode;
+  }
+
+  /**
+   * Limits the number of hypotheses kept per grapheme position to the
+   * most probable beamWidth. Unlimited by default.
+   * @param beamWidth the number of hypotheses kept per position
+   * @modifies this
+   * @throws IllegalArgumentException if beamWidth is less than 1
+   */
+  public synchronized void setBeamWidth(int beamWidth) {
+    setDecoder(new ViterbiDecoder(model, mode, beamWidth, beamThreshold, metrics));
+    this.beamWidth = beamWidth;
+  }
+
+  /**
+   * Prunes hypotheses whose probability falls below the best hypothesis
+   * at the same grapheme position by more than a factor of e^beamThreshold.
+   * Unlimited by default.
+   * @param beamThreshold the maximum natural log difference between a kept
+   *                      hypothesis and the best one
+   * @modifies this
+   * @throws IllegalArgumentException if beamThreshold is negative
+   */
+  public synchronized void setBeamThreshold(double beamThreshold) {
+    setDecoder(new ViterbiDecoder(model, mode, beamWidth, beamThreshold, metrics));
+    this.beamThreshold = beamThreshold;
+  }
+
+  /**
+   * Decodes with second-order phone context, conditioning each phone on the
+   * two phones before it. Trigram decoding always scores in log space and
+   * searches exhaustively, ignoring the scoring mode and beam. N-best and
+   * unsegmented decoding are unaffected. Passing null returns to decoding
+   * with the bigram transitions alone, which is the default.
+   * @param trigrams the trigram model to decode with, or null
+   * @modifies this
+   * @throws IllegalArgumentException if trigrams was not compiled against
+   *         the model of this calculator
+   */
+  public synchronized void setTrigramModel(TrigramModel trigrams) {
+    if (trigrams != null && trigrams.getBigram() != model) {
+      throw new IllegalArgumentException();
+    }
+    this.trigramDecoder = trigrams != null ? new TrigramDecoder(trigrams, metrics) : null;
+    PronunciationCache c = cache;
+    if (c != null) {
+      c.invalidate();
+    }
   }
 
-  // Convenient way to map indices and probabilities to solutions.
-  private class IndexAndProbability {
-    private int index;
-    private double prob;
-    public IndexAndProbability(int idx, double pr) {
-      this.index = idx;
-      this.prob = pr;
+  /**
+   * Answers words greedily when every one of their graphemes has a most
+   * probable phone more than e^minMargin times as probable as the next,
+   * decoding only the remaining words as usual. Passing positive infinity
+   * decodes every word, which is the default. Tier counts are reset.
+   * @param minMargin the natural log margin every grapheme of a word must
+   *                  exceed for the word to be answered greedily
+   * @modifies this
+   * @throws IllegalArgumentException if minMargin is negative or NaN
+   */
+  public synchronized void setGreedyMargin(double minMargin) {
+    if (minMargin == Double.POSITIVE_INFINITY) {
+      this.tiers = null;
+    } else {
+      this.tiers = new TieredDecoder(new ArgmaxTable(model), minMargin);
+    }
+    PronunciationCache c = cache;
+    if (c != null) {
+      c.invalidate();
     }
   }
+
+  /**
+   * Looks words up in a lexicon before decoding them, answering the words
+   * it holds with their pronunciation in the lexicon. The lexicon is kept
+   * when the model is replaced. Passing null decodes every word, which is
+   * the default. N-best and unsegmented decoding are unaffected.
+   * @param lexicon the lexicon to look words up in, or null
+   * @modifies this
+   */
+  public synchronized void setLexicon(Lexicon lexicon) {
+    this.lexicon = lexicon;
+    PronunciationCache c = cache;
+    if (c != null) {
+      c.invalidate();
+    }
+  }
+
+  /**
+   * @return Returns the lexicon words are looked up in before decoding,
+   *         or null if every word is decoded
+   */
+  public Lexicon getLexicon() {
+    return lexicon;
+  }
+
+  /**
+   * @return Returns the greedy tier in front of the decoder, through which
+   *         the number of words handled by each tier may be read, or null
+   *         if every word is decoded
+   */
+  public TieredDecoder getTiers() {
+    return tiers;
+  }
+
+  /**
+   * Replaces the network this calculator decodes with, e.g. after the
+   * model has been retrained. Cached pronunciations are discarded, as is
+   * any trigram model, which was compiled against the old network. The
+   * greedy tier is rebuilt for the new network, resetting its counts.
+   * @param model the compiled grapheme-to-phoneme network
+   * @modifies this
+   */
+  public synchronized void setModel(CompiledModel model) {
+    this.trigramDecoder = null;
+    TieredDecoder g = tiers;
+    if (g != null) {
+      this.tiers = new TieredDecoder(new ArgmaxTable(model), g.getMinMargin());
+    }
+    setDecoder(new ViterbiDecoder(model, mode, beamWidth, beamThreshold, metrics));
+    this.lattice = null;
+    this.model = model;
+  }
+
+  /**
+   * @return Returns the compiled network this calculator decodes with
+   */
+  public CompiledModel getModel() {
+    return model;
+  }
+
+  /**
+   * Places a cache of the given size in front of the decoder, replacing
+   * any existing cache. A size of 0 disables caching, which is the default.
+   * @param maximumSize the maximum number of pronunciations to cache
+   * @modifies this
+   * @throws IllegalArgumentException if maximumSize is negative
+   */
+  public synchronized void setCacheSize(int maximumSize) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.cache = maximumSize > 0 ? new PronunciationCache(maximumSize) : null;
+  }
+
+  /**
+   * Attaches metrics that every later call to calculatePhoneme, and every
+   * word decoded, is recorded to. Passing null detaches them, which is the
+   * default. Metrics may be shared between calculators.
+   * @param metrics the metrics to record to, or null
+   * @modifies this
+   */
+  public synchronized void setMetrics(DecoderMetrics metrics) {
+    this.metrics = metrics;
+    this.decoder = new ViterbiDecoder(model, mode, beamWidth, beamThreshold, metrics);
+    TrigramDecoder t = trigramDecoder;
+    if (t != null) {
+      this.trigramDecoder = new TrigramDecoder(t.getTrigrams(), metrics);
+    }
+  }
+
+  /**
+   * @return Returns the metrics calls are recorded to, or null if none are
+   *         attached
+   */
+  public DecoderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return Returns the cache in front of the decoder, through which its
+   *         hit, miss and eviction counts may be read, or null if caching
+   *         is disabled
+   */
+  public PronunciationCache getCache() {
+    return cache;
+  }
+
+  // Swaps in a new decoder, then discards pronunciations cached from
+  // the old one.
+  private void setDecoder(ViterbiDecoder decoder) {
+    this.decoder = decoder;
+    PronunciationCache c = cache;
+    if (c != null) {
+      c.invalidate();
+    }
+  }
+
+  /**
+   * Returns the decoder currently in use, for callers decoding into their
+   * own buffers with ViterbiDecoder.decode(CharSequence, DecoderState, int[]).
+   * The decoder is replaced whenever the model or decoding options change,
+   * so phone IDs should be turned into phones with the same decoder that
+   * produced them. Words are not decoded with it while a trigram model
+   * is attached.
+   * @return Returns the current bigram decoder
+   */
+  public ViterbiDecoder getDecoder() {
+    return decoder;
+  }
+
+  /**
+   * Estimates the memory held by this calculator, for budgeting how many
+   * may be resident at once: its model, plus the trigram model, argmax
+   * table, lexicon and lattice trie it currently decodes with. The
+   * pronunciation cache is not counted, as its entries grow with use up to
+   * its capacity, nor are the scratch buffers of decoding threads.
+   * @return Returns the approximate number of bytes held by this calculator
+   */
+  public long getFootprint() {
+    long res = model.getFootprint();
+    TrigramDecoder t = trigramDecoder;
+    if (t != null) {
+      res += t.getTrigrams().getFootprint();
+    }
+    TieredDecoder td = tiers;
+    if (td != null) {
+      res += td.getFootprint();
+    }
+    Lexicon lex = lexicon;
+    if (lex != null) {
+      res += lex.getFootprint();
+    }
+    LatticeDecoder l = lattice;
+    if (l != null) {
+      res += l.getFootprint();
+    }
+    return res;
+  }
+
+  /**
+   * @return Returns the number of hypotheses pruned from the beam since
+   *         the decoding options were last changed
+   */
+  public long getPrunedHypotheses() {
+    return decoder.getPrunedHypotheses();
+  }
 }
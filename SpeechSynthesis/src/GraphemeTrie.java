@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * A trie over the grapheme inventory of a CompiledModel, used to find every
+ * grapheme that begins at a given position of an unsegmented word.
+ * <p>
+ *
+ * Nodes are stored in parallel arrays as a first-child/next-sibling tree,
+ * with node 0 as the root. Tries are immutable once built.
+ */
+public class GraphemeTrie {
+
+  private final char[] labels;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+
+  // The ID of the grapheme spelled by the path to each node, or -1.
+  private final int[] graphemeIds;
+
+  /**
+   * Builds a trie of the graphemes of a model which were seen in training,
+   * i.e. those with a positive prior.
+   * @param model the model whose graphemes to index
+   */
+  public GraphemeTrie(CompiledModel model) {
+    SymbolTable graphemes = model.graphemes();
+    int capacity = 1;
+    for (int g = 0; g < graphemes.size(); g++) {
+      capacity += graphemes.symbol(g).length();
+    }
+    char[] labels = new char[capacity];
+    int[] firstChild = new int[capacity];
+    int[] nextSibling = new int[capacity];
+    int[] graphemeIds = new int[capacity];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+    Arrays.fill(graphemeIds, -1);
+
+    int size = 1;
+    for (int g = 0; g < graphemes.size(); g++) {
+      String grapheme = graphemes.symbol(g);
+      if (model.graphemePrior(g) <= 0 || grapheme.isEmpty()) {
+        continue;
+      }
+      int node = 0;
+      for (int i = 0; i < grapheme.length(); i++) {
+        int next = child(firstChild, nextSibling, labels, node, grapheme.charAt(i));
+        if (next < 0) {
+          next = size++;
+          labels[next] = grapheme.charAt(i);
+          nextSibling[next] = firstChild[node];
+          firstChild[node] = next;
+        }
+        node = next;
+      }
+      graphemeIds[node] = g;
+    }
+
+    this.labels = Arrays.copyOf(labels, size);
+    this.firstChild = Arrays.copyOf(firstChild, size);
+    this.nextSibling = Arrays.copyOf(nextSibling, size);
+    this.graphemeIds = Arrays.copyOf(graphemeIds, size);
+  }
+
+  /**
+   * @return Returns the root node of the trie
+   */
+  public int root() {
+    return 0;
+  }
+
+  /**
+   * Follows an edge of the trie
+   * @param node the node to follow from
+   * @param c the character labelling the edge
+   * @return Returns the child of node along c, or -1 if there is none
+   */
+  public int child(int node, char c) {
+    return child(firstChild, nextSibling, labels, node, c);
+  }
+
+  /**
+   * @param node a node of the trie
+   * @return Returns the ID of the grapheme spelled by the path from the
+   *         root to node, or -1 if that path does not spell a grapheme
+   */
+  public int graphemeAt(int node) {
+    return graphemeIds[node];
+  }
+
+  /**
+   * @return Returns the approximate number of bytes occupied by the trie
+   */
+  public long getFootprint() {
+    return 2L * labels.length + 4L * firstChild.length + 4L * nextSibling.length
+            + 4L * graphemeIds.length;
+  }
+
+  private static int child(int[] firstChild, int[] nextSibling, char[] labels,
+                           int node, char c) {
+    for (int k = firstChild[node]; k >= 0; k = nextSibling[k]) {
+      if (labels[k] == c) {
+        return k;
+      }
+    }
+    return -1;
+  }
+}
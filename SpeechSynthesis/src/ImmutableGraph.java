@@ -0,0 +1,273 @@
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * ImmutableGraph is a frozen, read-only snapshot of a Graph whose edge
+ * weights are stored as primitive doubles.
+ * <p>
+ *
+ * Nodes are numbered with dense integer IDs, and edges are stored in
+ * compressed sparse row (CSR) form: the edges leaving node n occupy the
+ * index range [edgeStart(n), edgeEnd(n)) of parallel target and weight
+ * arrays, sorted by target ID. Iterating over edges by index allocates
+ * nothing, and looking up an edge costs one hash lookup per node plus a
+ * binary search.
+ * <p>
+ *
+ * As it cannot change, an ImmutableGraph may be read by any number of
+ * threads at once.
+ *
+ * @param <V> the type of the values of nodes
+ */
+public final class ImmutableGraph<V> {
+
+    // Node values by ID, and an open-addressed table of (ID + 1) by the
+    // hash of each value, 0 marking an empty slot.
+    private final Object[] nodes;
+    private final int[] slots;
+    private final int mask;
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+
+    // Abstraction function:
+    //
+    // The nodes of the graph are nodes[0] ... nodes[nodes.length - 1].
+    // For every index e in [offsets[n], offsets[n + 1]), there is an edge from
+    // nodes[n] to nodes[targets[e]] with weight weights[e].
+
+    // Representation Invariant:
+    //
+    // Node values are non-null and distinct.
+    // offsets is non-decreasing, with offsets[0] = 0 and
+    // offsets[nodes.length] = targets.length = weights.length.
+    // Targets within a row are valid node IDs in strictly increasing order.
+
+    private ImmutableGraph(Object[] nodes, int[] offsets, int[] targets, double[] weights) {
+        this.nodes = nodes;
+        int capacity = 2;
+        while (capacity < nodes.length * 2) {
+            capacity <<= 1;
+        }
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int id = 0; id < nodes.length; id++) {
+            int slot = spread(nodes[id].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Freezes a graph whose edge weights are numbers.
+     * @param graph The graph to freeze
+     * @return Returns a read-only copy of graph
+     */
+    public static <V> ImmutableGraph<V> of(Graph<V, ? extends Number> graph) {
+        return of(graph, Number::doubleValue);
+    }
+
+    /**
+     * Freezes a graph, converting each of its edge weights to a double.
+     * Later changes to graph are not reflected in the copy.
+     * @param graph The graph to freeze
+     * @param weight Converts an edge weight to a double
+     * @return Returns a read-only copy of graph
+     */
+    public static <V, W> ImmutableGraph<V> of(Graph<V, W> graph,
+                                              ToDoubleFunction<? super W> weight) {
+        Object[] nodes = graph.getNodes().toArray();
+        Map<V, Integer> ids = new HashMap<V, Integer>();
+        for (int id = 0; id < nodes.length; id++) {
+            @SuppressWarnings("unchecked")
+            V value = (V) nodes[id];
+            ids.put(value, id);
+        }
+
+        int[] offsets = new int[nodes.length + 1];
+        for (int id = 0; id < nodes.length; id++) {
+            @SuppressWarnings("unchecked")
+            V value = (V) nodes[id];
+            offsets[id + 1] = offsets[id] + graph.getChildrenOf(value).size();
+        }
+
+        int[] targets = new int[offsets[nodes.length]];
+        double[] weights = new double[targets.length];
+        for (int id = 0; id < nodes.length; id++) {
+            @SuppressWarnings("unchecked")
+            V value = (V) nodes[id];
+            int e = offsets[id];
+            for (V child : graph.getChildrenOf(value)) {
+                targets[e++] = ids.get(child);
+            }
+            Arrays.sort(targets, offsets[id], offsets[id + 1]);
+            for (e = offsets[id]; e < offsets[id + 1]; e++) {
+                @SuppressWarnings("unchecked")
+                V child = (V) nodes[targets[e]];
+                weights[e] = weight.applyAsDouble(graph.getEdgeBetween(value, child));
+            }
+        }
+
+        return new ImmutableGraph<V>(nodes, offsets, targets, weights);
+    }
+
+    /**
+     * @return Returns the number of nodes in the graph
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the ID of a node
+     * @param value The node of inquiry
+     * @return Returns the ID of the node, or -1 if it is not in the graph
+     */
+    public int nodeId(V value) {
+        int slot = spread(value.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (nodes[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the node with the given ID
+     * @param id The ID of inquiry
+     * @requires 0 <= id < size()
+     * @return Returns the value of the node
+     */
+    @SuppressWarnings("unchecked")
+    public V node(int id) {
+        return (V) nodes[id];
+    }
+
+    /**
+     * Checks whether a node is contained in the graph
+     * @param value The node of inquiry
+     * @return Returns true if the node is in the graph, false otherwise
+     */
+    public boolean containsNode(V value) {
+        return nodeId(value) >= 0;
+    }
+
+    /**
+     * Returns the index of the first edge leaving a node
+     * @param id The ID of the source node
+     * @requires 0 <= id < size()
+     */
+    public int edgeStart(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * Returns the index one past the last edge leaving a node
+     * @param id The ID of the source node
+     * @requires 0 <= id < size()
+     */
+    public int edgeEnd(int id) {
+        return offsets[id + 1];
+    }
+
+    /**
+     * @param e The index of an edge
+     * @return Returns the ID of the node edge e points to
+     */
+    public int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /**
+     * @param e The index of an edge
+     * @return Returns the weight of edge e
+     */
+    public double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * Finds the edge between two nodes
+     * @param from The ID of the node in which the edge comes from
+     * @param to The ID of the node in which the edge points to
+     * @requires 0 <= from < size()
+     * @return Returns the index of the edge, or -1 if there is none
+     */
+    public int findEdge(int from, int to) {
+        int k = Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to);
+        return k >= 0 ? k : -1;
+    }
+
+    /**
+     * Returns the weight of the edge between two nodes in the graph
+     * @param n1 The node in which the edge comes from
+     * @param n2 The node in which the edge points to
+     * @return Returns the weight of the edge from n1 to n2, or NaN if either
+     *         node is not in the graph or there is no such edge
+     */
+    public double getEdgeBetween(V n1, V n2) {
+        int from = nodeId(n1);
+        int to = nodeId(n2);
+        if (from < 0 || to < 0) {
+            return Double.NaN;
+        }
+        int e = findEdge(from, to);
+        return e >= 0 ? weights[e] : Double.NaN;
+    }
+
+    /**
+     * Returns the set of nodes such that they are the destinations of the given node's edges
+     * @param n1 The node of interest
+     * @return Returns a set containing the descendant nodes of n1 if n1 is in the graph, null otherwise
+     */
+    public Set<V> getChildrenOf(V n1) {
+        int id = nodeId(n1);
+        if (id < 0) {
+            return null;
+        }
+        Set<V> res = new LinkedHashSet<V>();
+        for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+            res.add(node(targets[e]));
+        }
+        return Collections.unmodifiableSet(res);
+    }
+
+    /**
+     * Returns the set of all nodes contained in the graph
+     * @return Returns a set containing all vertices in the graph.
+     */
+    public Set<V> getNodes() {
+        Set<V> res = new LinkedHashSet<V>();
+        for (int id = 0; id < nodes.length; id++) {
+            res.add(node(id));
+        }
+        return Collections.unmodifiableSet(res);
+    }
+
+    // Mixes the high bits of a hash code into the low bits used for slots.
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        for (int id = 0; id < nodes.length; id++) {
+            res.append(nodes[id]).append(":\n");
+            for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+                res.append("\t").append(nodes[targets[e]]).append(" via ")
+                   .append(weights[e]).append("\n");
+            }
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Trains a grapheme-to-phoneme network one aligned line at a time.
+ * <p>
+ *
+ * Unlike ParseModifiedBoston, which overwrites its counts with probabilities
+ * when it normalizes, the trainer keeps raw counts and the total count of
+ * every row separately from the normalized graphs. Adding a line only
+ * updates the counts it touches and marks their rows as dirty; dirty rows
+ * are renormalized lazily the next time the network is read. An update
+ * therefore costs time proportional to the rows it changed rather than to
+ * the size of the corpus.
+ * <p>
+ *
+ * All methods are synchronized, so lines may be added from any thread.
+ * The graphs returned by getNetwork() and getTransitions() are updated in
+ * place by later training; compile() takes an immutable snapshot suitable
+ * for GraphemeToPhonemeCalculator.setModel().
+ */
+public class IncrementalTrainer {
+
+  private final CorpusCounts counts = new CorpusCounts();
+  private final Map<String, double[]> emissionTotals = new HashMap<>();
+  private final Map<String, double[]> transitionTotals = new HashMap<>();
+
+  // Normalized graphs, and the rows of each whose counts have changed
+  // since they were last normalized.
+  private final Graph<String, Double> graphToPhones = new Graph<>();
+  private final Graph<String, Double> transitions = new Graph<>();
+  private final Set<String> dirtyEmissions = new HashSet<>();
+  private final Set<String> dirtyTransitions = new HashSet<>();
+
+  /**
+   * Takes a stream in the format of a modded Boston corpus and trains
+   * on each of its aligned lines, stopping at a "BREAK!" line as
+   * ParseModifiedBoston.parseFile does.
+   * @param fileReader the stream to be read
+   * @modifies this
+   */
+  public synchronized void addLines(BufferedReader fileReader) throws IOException {
+    String inputLine;
+    while ((inputLine = fileReader.readLine()) != null && !inputLine.equals("BREAK!")) {
+      if (inputLine.contains(" ")) {
+        addLine(inputLine);
+      }
+    }
+  }
+
+  /**
+   * Trains on one aligned line in the format of a modded Boston corpus,
+   * e.g. "w-ee-k w 0 iy+1 1 k 2 //".
+   * @param input the line to train on
+   * @modifies this
+   * @throws IllegalArgumentException if the line is not an aligned line
+   */
+  public synchronized void addLine(String input) {
+    CorpusCounts line = new CorpusCounts();
+    try {
+      ParseModifiedBoston.parseLine(input, line);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Malformed line: " + input, e);
+    }
+
+    for (String node : line.graphToPhonesNodes) {
+      graphToPhones.addNode(node);
+    }
+    for (String node : line.transitionNodes) {
+      transitions.addNode(node);
+    }
+    addTotals(line.graphToPhonesCounts, emissionTotals, dirtyEmissions);
+    addTotals(line.transitionCounts, transitionTotals, dirtyTransitions);
+    counts.merge(line);
+  }
+
+  // Adds the counts of each row to its total and marks the row dirty.
+  private static void addTotals(Map<String, Map<String, double[]>> rows,
+                                Map<String, double[]> totals,
+                                Set<String> dirty) {
+    for (String src : rows.keySet()) {
+      double[] total = totals.get(src);
+      if (total == null) {
+        total = new double[1];
+        totals.put(src, total);
+      }
+      for (double[] count : rows.get(src).values()) {
+        total[0] += count[0];
+      }
+      dirty.add(src);
+    }
+  }
+
+  // Renormalizes the dirty rows of a graph from their raw counts.
+  private static void normalize(Graph<String, Double> graph,
+                                Map<String, Map<String, double[]>> rows,
+                                Map<String, double[]> totals,
+                                Set<String> dirty) {
+    for (String src : dirty) {
+      double denom = totals.get(src)[0];
+      Map<String, double[]> row = rows.get(src);
+      for (String dest : row.keySet()) {
+        graph.addEdge(src, dest, row.get(dest)[0] / denom);
+      }
+    }
+    dirty.clear();
+  }
+
+  /**
+   * Getter method for the current network, renormalizing any rows
+   * changed since it was last read.
+   * @return The grapheme-phoneme mappings.
+   */
+  public synchronized Graph<String, Double> getNetwork() {
+    normalize(graphToPhones, counts.graphToPhonesCounts, emissionTotals, dirtyEmissions);
+    return graphToPhones;
+  }
+
+  /**
+   * Getter method for the current transitions, renormalizing any rows
+   * changed since they were last read.
+   * @return The phoneme-phoneme mappings.
+   */
+  public synchronized Graph<String, Double> getTransitions() {
+    normalize(transitions, counts.transitionCounts, transitionTotals, dirtyTransitions);
+    return transitions;
+  }
+
+  /**
+   * @return Returns a map of the graphemes seen so far to their counts.
+   */
+  public synchronized Map<String, Double> getGraphemes() {
+    Map<String, Double> res = new HashMap<>();
+    for (String g : counts.graphemeCounts.keySet()) {
+      res.put(g, counts.graphemeCounts.get(g)[0]);
+    }
+    return res;
+  }
+
+  /**
+   * @return Returns a map of the phonemes seen so far to their
+   *         relative frequencies.
+   */
+  public synchronized Map<String, Double> getNormalizedPhones() {
+    Map<String, Double> res = new HashMap<>();
+    double total = 0.0;
+    for (double[] count : counts.phonemeCounts.values()) {
+      total += count[0];
+    }
+
+    for (String p : counts.phonemeCounts.keySet()) {
+      res.put(p, counts.phonemeCounts.get(p)[0] / total);
+    }
+    return res;
+  }
+
+  /**
+   * Compiles the current network for decoding.
+   * @return An immutable snapshot of the network trained so far.
+   */
+  public synchronized CompiledModel compile() {
+    return CompiledModel.compile(getNetwork(), getTransitions(),
+                                 getGraphemes(), getNormalizedPhones());
+  }
+}
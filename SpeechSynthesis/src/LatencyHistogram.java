@@ -0,0 +1,135 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, from which
+ * percentiles may be read while it is still being recorded to.
+ * <p>
+ *
+ * Values are counted in log-linear buckets: each power of two is split
+ * into SUB_BUCKETS equal buckets, so a percentile is reported to within
+ * 1 / SUB_BUCKETS of its true value whatever its magnitude, in a fixed
+ * amount of memory. Recording a value is a few atomic increments and never
+ * blocks, so any number of threads may record at once.
+ */
+public class LatencyHistogram {
+
+  // Buckets per power of two. Values below SUB_BUCKETS are counted exactly.
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records one latency.
+   * @param nanos the latency in nanoseconds; negative values count as 0
+   * @modifies this
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketOf(value));
+    count.increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * @return Returns the number of latencies recorded
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return Returns the largest latency recorded in nanoseconds, or 0 if
+   *         none have been
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return Returns the mean latency in nanoseconds, or 0 if none have
+   *         been recorded
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0.0 : (double) total.sum() / n;
+  }
+
+  /**
+   * Returns a percentile of the recorded latencies.
+   * @param percentile the percentile to return, such as 50 or 99
+   * @return Returns the upper bound of the bucket holding the percentile in
+   *         nanoseconds, at most getMax(), or 0 if nothing has been recorded
+   * @throws IllegalArgumentException if percentile is not within [0, 100]
+   */
+  public long getPercentile(double percentile) {
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException();
+    }
+
+    // Sum the buckets once so that a concurrent record cannot push the
+    // rank past the counts being scanned.
+    long[] snapshot = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      n += snapshot[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Discards every recorded latency. Latencies recorded concurrently with
+   * a reset may be partially kept.
+   * @modifies this
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    total.reset();
+    max.reset();
+  }
+
+  // Returns the bucket counting value >= 0.
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // Returns the largest value counted by bucket i.
+  private static long upperBoundOf(int i) {
+    if (i < SUB_BUCKETS) {
+      return i;
+    }
+    int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = i % SUB_BUCKETS;
+    long lower = (1L << exponent) | (sub << (exponent - SUB_BITS));
+    long width = 1L << (exponent - SUB_BITS);
+    return lower + width - 1 < 0 ? Long.MAX_VALUE : lower + width - 1;
+  }
+}
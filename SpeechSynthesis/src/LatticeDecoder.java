@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * Decodes unsegmented words by choosing their grapheme segmentation and
+ * their phones in a single Viterbi pass.
+ * <p>
+ *
+ * Every grapheme of the model matching the word at some position is an arc
+ * of a lattice over the character positions of the word; a GraphemeTrie
+ * finds all arcs leaving a position in one walk. The lattice thereby holds
+ * every valid segmentation of the word at once. Each position keeps one
+ * entry per (arc, phone) pair ending there, scored by the best path into it
+ * along with a backpointer, so the best segmentation and phone sequence are
+ * found together without decoding any segmentation on its own.
+ * <p>
+ *
+ * Decoders hold no per-call state and may be shared between threads.
+ */
+public class LatticeDecoder {
+
+  private final CompiledModel model;
+  private final GraphemeTrie trie;
+  private final boolean logSpace;
+
+  // Score of a path that does not exist.
+  private final double dead;
+
+  /**
+   * Constructor for a LatticeDecoder
+   * @param model the compiled network to decode with
+   * @param mode the arithmetic to score paths with
+   */
+  public LatticeDecoder(CompiledModel model, ScoringMode mode) {
+    this.model = model;
+    this.trie = new GraphemeTrie(model);
+    this.logSpace = mode == ScoringMode.LOG;
+    this.dead = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+  }
+
+  /**
+   * Finds the most probable segmentation of a word into graphemes together
+   * with the most probable phones for it.
+   * @param word the unsegmented word
+   * @return Returns the best pronunciation, whose graphemes give the chosen
+   *         segmentation, or null if the word cannot be segmented into
+   *         graphemes joined by valid transitions
+   */
+  public Pronunciation decode(String word) {
+    int len = word.length();
+    if (len == 0) {
+      return null;
+    }
+
+    // columns[e] holds the entries of arcs ending at position e.
+    Column[] columns = new Column[len + 1];
+    for (int s = 0; s < len; s++) {
+      Column from = columns[s];
+      if (s > 0 && from == null) {
+        continue;
+      }
+
+      int node = trie.root();
+      for (int e = s + 1; e <= len; e++) {
+        node = trie.child(node, word.charAt(e - 1));
+        if (node < 0) {
+          break;
+        }
+        int g = trie.graphemeAt(node);
+        if (g < 0) {
+          continue;
+        }
+
+        for (int k = model.emissionStart(g); k < model.emissionEnd(g); k++) {
+          double best = dead;
+          int bestPrev = -1;
+          if (s == 0) {
+            best = logSpace ? model.initialLogProb(k) : model.initialProb(k);
+          } else {
+            int curr_phone = model.emissionPhone(k);
+            for (int j = 0; j < from.size; j++) {
+              int last_phone = model.emissionPhone(from.emissions[j]);
+              double prob = logSpace
+                      ? from.scores[j] + model.transitionLogProb(last_phone, curr_phone)
+                      : from.scores[j] * model.transitionProb(last_phone, curr_phone);
+              if (prob > best) {
+                best = prob;
+                bestPrev = j;
+              }
+            }
+          }
+
+          if (best > dead) {
+            if (columns[e] == null) {
+              columns[e] = new Column();
+            }
+            columns[e].add(k, best, s, bestPrev);
+          }
+        }
+      }
+    }
+
+    Column last = columns[len];
+    if (last == null) {
+      return null;
+    }
+    int best = 0;
+    for (int j = 1; j < last.size; j++) {
+      if (last.scores[j] > last.scores[best]) {
+        best = j;
+      }
+    }
+    double score = last.scores[best];
+
+    // Follow the backpointers, collecting graphemes and phones in reverse.
+    StringBuilder graphemes = new StringBuilder();
+    StringBuilder phones = new StringBuilder();
+    int e = len;
+    while (e > 0) {
+      Column column = columns[e];
+      int s = column.starts[best];
+      if (e < len) {
+        graphemes.insert(0, '-');
+        phones.insert(0, '-');
+      }
+      graphemes.insert(0, word, s, e);
+      phones.insert(0, model.phones().symbol(model.emissionPhone(column.emissions[best])));
+      best = column.backpointers[best];
+      e = s;
+    }
+    return new Pronunciation(graphemes.toString(), phones.toString(),
+                             logSpace ? score : Math.log(score));
+  }
+
+  /**
+   * @return Returns the approximate number of bytes occupied by the
+   *         grapheme trie of this decoder, excluding its model
+   */
+  public long getFootprint() {
+    return trie.getFootprint();
+  }
+
+  // The live entries of arcs ending at one position: the emission of each
+  // arc, its score, the position it starts at and its best predecessor.
+  private static class Column {
+    private int size;
+    private int[] emissions = new int[8];
+    private double[] scores = new double[8];
+    private int[] starts = new int[8];
+    private int[] backpointers = new int[8];
+
+    private void add(int emission, double score, int start, int backpointer) {
+      if (size == emissions.length) {
+        emissions = Arrays.copyOf(emissions, size * 2);
+        scores = Arrays.copyOf(scores, size * 2);
+        starts = Arrays.copyOf(starts, size * 2);
+        backpointers = Arrays.copyOf(backpointers, size * 2);
+      }
+      emissions[size] = emission;
+      scores[size] = score;
+      starts[size] = start;
+      backpointers[size] = backpointer;
+      size++;
+    }
+  }
+}
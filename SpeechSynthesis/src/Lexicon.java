@@ -0,0 +1,473 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A read-only index of words whose pronunciations are known exactly, such
+ * as the words of a training corpus with their gold alignments, looked up
+ * before decoding so that known words are never decoded.
+ * <p>
+ *
+ * The words are held in a minimal acyclic finite-state transducer over
+ * the characters of the hyphen-segmented words. Words sharing a prefix
+ * share the states of that prefix and, as the automaton is minimal, words
+ * sharing a suffix share its states too, so a lexicon of millions of words
+ * takes a small fraction of the space of a map of strings. Each arc carries
+ * the number of words that sort before the words reached through it, so
+ * that the outputs along a word's path sum to its rank among the words.
+ * The rank indexes a table of pronunciations, each held as one byte phone ID
+ * per grapheme in the lexicon's own phone table.
+ * <p>
+ *
+ * States and arcs are held in primitive arrays, the arcs of each state
+ * contiguous and sorted by character for binary search, so that looking a
+ * word up allocates nothing. A Lexicon is immutable once compiled and may
+ * be read by any number of threads at once.
+ */
+public final class Lexicon {
+
+  // The arcs of state s are [arcStarts[s], arcStarts[s + 1]), labelled by
+  // labels, leading to targets, and adding outputs to the rank of a word.
+  private final int[] arcStarts;
+  private final char[] labels;
+  private final int[] targets;
+  private final int[] outputs;
+
+  // A bit per state, set if a word ends there.
+  private final long[] finals;
+  private final int root;
+
+  // The phone IDs of the pronunciation of the word of rank r are
+  // [pronunciationStarts[r], pronunciationStarts[r + 1]) of pronunciations.
+  private final int[] pronunciationStarts;
+  private final byte[] pronunciations;
+  private final SymbolTable phones;
+
+  private Lexicon(int[] arcStarts, char[] labels, int[] targets, int[] outputs,
+                  long[] finals, int root, int[] pronunciationStarts,
+                  byte[] pronunciations, SymbolTable phones) {
+    this.arcStarts = arcStarts;
+    this.labels = labels;
+    this.targets = targets;
+    this.outputs = outputs;
+    this.finals = finals;
+    this.root = root;
+    this.pronunciationStarts = pronunciationStarts;
+    this.pronunciations = pronunciations;
+    this.phones = phones;
+  }
+
+  /**
+   * Compiles words and their pronunciations into a lexicon.
+   * @param words hyphen-segmented words, sorted by String.compareTo
+   * @param pronunciations the hyphen-separated phones of each word, one per
+   *                       grapheme, where an empty phone marks a silent
+   *                       grapheme
+   * @return Returns the compiled lexicon
+   * @throws IllegalArgumentException if words are not sorted or are
+   *         repeated, if there is not exactly one pronunciation per word,
+   *         or if there are more than 256 distinct phones
+   */
+  public static Lexicon compile(List<String> words, List<String> pronunciations) {
+    if (words.size() != pronunciations.size()) {
+      throw new IllegalArgumentException();
+    }
+
+    // Phones are numbered in sorted order, so that the same entries
+    // always compile to the same lexicon.
+    SortedSet<String> symbols = new TreeSet<>();
+    int length = 0;
+    for (String pronunciation : pronunciations) {
+      String[] split = pronunciation.split("-", -1);
+      symbols.addAll(Arrays.asList(split));
+      length += split.length;
+    }
+    if (symbols.size() > 1 << 8) {
+      throw new IllegalArgumentException("Too many phones: " + symbols.size());
+    }
+    SymbolTable phones = SymbolTable.of(symbols);
+    int[] starts = new int[words.size() + 1];
+    byte[] ids = new byte[length];
+    int at = 0;
+    for (int r = 0; r < pronunciations.size(); r++) {
+      for (String phone : pronunciations.get(r).split("-", -1)) {
+        ids[at++] = (byte) phones.id(phone);
+      }
+      starts[r + 1] = at;
+    }
+
+    Builder builder = new Builder();
+    for (String word : words) {
+      builder.add(word);
+    }
+    return builder.finish(starts, ids, phones);
+  }
+
+  /**
+   * Returns the pronunciation of a word
+   * @param word the hyphen-segmented word of inquiry
+   * @return Returns the hyphen-separated phones of word, one per grapheme,
+   *         or null if it is not in the lexicon
+   */
+  public String lookup(CharSequence word) {
+    int rank = find(word, 0, word.length());
+    return rank < 0 ? null : pronunciation(rank);
+  }
+
+  /**
+   * Returns the rank of a word given as a range of characters, without
+   * creating a String for it
+   * @param chars the characters holding the word of inquiry
+   * @param start the index of the first character of the word
+   * @param end the index one past the last character of the word
+   * @requires 0 <= start <= end <= chars.length()
+   * @return Returns the number of words of the lexicon sorting before the
+   *         word, or -1 if it is not in the lexicon
+   */
+  public int find(CharSequence chars, int start, int end) {
+    int state = root;
+    int rank = 0;
+    for (int i = start; i < end; i++) {
+      int arc = arc(state, chars.charAt(i));
+      if (arc < 0) {
+        return -1;
+      }
+      rank += outputs[arc];
+      state = targets[arc];
+    }
+    return isFinal(state) ? rank : -1;
+  }
+
+  // Returns the arc of state labelled c, or -1 if there is none.
+  private int arc(int state, char c) {
+    int lo = arcStarts[state];
+    int hi = arcStarts[state + 1] - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      char label = labels[mid];
+      if (label < c) {
+        lo = mid + 1;
+      } else if (label > c) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isFinal(int state) {
+    return (finals[state >>> 6] & (1L << state)) != 0;
+  }
+
+  /**
+   * Returns the pronunciation of the word of a given rank
+   * @param rank the rank of the word, as returned by find
+   * @requires 0 <= rank < size()
+   * @return Returns the hyphen-separated phones of the word, one per grapheme
+   */
+  public String pronunciation(int rank) {
+    int start = pronunciationStarts[rank];
+    int end = pronunciationStarts[rank + 1];
+    StringBuilder res = new StringBuilder((end - start) * 4);
+    for (int i = start; i < end; i++) {
+      if (i > start) {
+        res.append('-');
+      }
+      res.append(phones.symbol(pronunciations[i] & 0xff));
+    }
+    return res.toString();
+  }
+
+  /**
+   * @return Returns the number of words in the lexicon
+   */
+  public int size() {
+    return pronunciationStarts.length - 1;
+  }
+
+  /**
+   * @return Returns the number of states of the transducer
+   */
+  public int getStateCount() {
+    return arcStarts.length - 1;
+  }
+
+  /**
+   * @return Returns the number of arcs of the transducer
+   */
+  public int getArcCount() {
+    return labels.length;
+  }
+
+  /**
+   * @return Returns the approximate number of bytes held by the lexicon
+   */
+  public long getFootprint() {
+    return 4L * arcStarts.length + 2L * labels.length + 4L * targets.length
+            + 4L * outputs.length + 8L * finals.length
+            + 4L * pronunciationStarts.length + pronunciations.length
+            + phones.getFootprint();
+  }
+
+  /**
+   * @return Returns the number of bytes encode() writes
+   */
+  long encodedBytes() {
+    long bytes = 0;
+    for (int i = 0; i < phones.size(); i++) {
+      bytes += 4 + phones.symbol(i).getBytes(StandardCharsets.UTF_8).length;
+    }
+    return 24 + ModelFile.align(bytes) + 8L * finals.length
+            + 4L * (arcStarts.length + targets.length + outputs.length
+            + pronunciationStarts.length)
+            + 2L * labels.length + pronunciations.length;
+  }
+
+  /**
+   * Writes the tables of the lexicon, as laid out in a lexicon file after
+   * its header.
+   * @param buffer the buffer to write to, positioned at a multiple of 8
+   *               bytes with at least encodedBytes() remaining
+   * @modifies buffer
+   */
+  void encode(ByteBuffer buffer) {
+    buffer.putInt(size()).putInt(phones.size()).putInt(getStateCount())
+            .putInt(getArcCount()).putInt(pronunciations.length).putInt(root);
+    int start = buffer.position();
+    for (int i = 0; i < phones.size(); i++) {
+      byte[] symbol = phones.symbol(i).getBytes(StandardCharsets.UTF_8);
+      buffer.putInt(symbol.length).put(symbol);
+    }
+    buffer.position(start + ModelFile.align(buffer.position() - start));
+
+    buffer.asLongBuffer().put(finals);
+    buffer.position(buffer.position() + 8 * finals.length);
+    for (int[] ints : new int[][] {arcStarts, targets, outputs, pronunciationStarts}) {
+      buffer.asIntBuffer().put(ints);
+      buffer.position(buffer.position() + 4 * ints.length);
+    }
+    buffer.asCharBuffer().put(labels);
+    buffer.position(buffer.position() + 2 * labels.length);
+    buffer.put(pronunciations);
+  }
+
+  /**
+   * Reads the tables of a lexicon written by encode() into the heap.
+   * @param buffer the buffer to read from, positioned where encode() began
+   *               writing. It is left positioned after the tables.
+   * @return Returns the lexicon
+   * @throws RuntimeException if the tables are corrupt
+   */
+  static Lexicon decode(ByteBuffer buffer) {
+    int size = buffer.getInt();
+    int phoneCount = buffer.getInt();
+    int stateCount = buffer.getInt();
+    int arcCount = buffer.getInt();
+    int length = buffer.getInt();
+    int root = buffer.getInt();
+    int start = buffer.position();
+    List<String> symbols = new ArrayList<>(phoneCount);
+    for (int i = 0; i < phoneCount; i++) {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      symbols.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    buffer.position(start + ModelFile.align(buffer.position() - start));
+
+    long[] finals = new long[(stateCount + 63) >>> 6];
+    buffer.asLongBuffer().get(finals);
+    buffer.position(buffer.position() + 8 * finals.length);
+    int[] arcStarts = new int[stateCount + 1];
+    int[] targets = new int[arcCount];
+    int[] outputs = new int[arcCount];
+    int[] pronunciationStarts = new int[size + 1];
+    for (int[] ints : new int[][] {arcStarts, targets, outputs, pronunciationStarts}) {
+      buffer.asIntBuffer().get(ints);
+      buffer.position(buffer.position() + 4 * ints.length);
+    }
+    char[] labels = new char[arcCount];
+    buffer.asCharBuffer().get(labels);
+    buffer.position(buffer.position() + 2 * labels.length);
+    byte[] pronunciations = new byte[length];
+    buffer.get(pronunciations);
+    if (root < 0 || root >= stateCount) {
+      throw new IllegalArgumentException("Corrupt lexicon root: " + root);
+    }
+    return new Lexicon(arcStarts, labels, targets, outputs, finals, root,
+            pronunciationStarts, pronunciations, SymbolTable.of(symbols));
+  }
+
+  /**
+   * Builds a minimal acyclic transducer from words added in sorted order,
+   * by the incremental algorithm of Daciuk et al. The states along the
+   * path of the last word added are still open to new arcs; when the next
+   * word leaves that path, the states it left are frozen deepest first,
+   * each replaced by an equivalent frozen state if one exists, so that the
+   * transducer stays minimal without ever holding more than one word's
+   * path of open states.
+   */
+  private static class Builder {
+
+    // Frozen states, as they will be laid out in the lexicon, and the
+    // number of words accepted from each.
+    private int[] arcStarts = new int[1024];
+    private char[] labels = new char[1024];
+    private int[] targets = new int[1024];
+    private int[] outputs = new int[1024];
+    private long[] finals = new long[16];
+    private int[] wordCounts = new int[1024];
+    private int stateCount;
+    private int arcCount;
+
+    // Frozen states by their finality and arcs.
+    private final Map<Signature, Integer> register = new HashMap<>();
+
+    // The open states along the path of the last word, path[i] being
+    // reached by its first i characters.
+    private OpenState[] path = {new OpenState()};
+    private String last;
+
+    private void add(String word) {
+      if (last != null && word.compareTo(last) <= 0) {
+        throw new IllegalArgumentException("Words not sorted: " + last + ", " + word);
+      }
+      int prefix = 0;
+      if (last != null) {
+        int max = Math.min(last.length(), word.length());
+        while (prefix < max && last.charAt(prefix) == word.charAt(prefix)) {
+          prefix++;
+        }
+        freeze(prefix);
+      }
+
+      if (path.length <= word.length()) {
+        int old = path.length;
+        path = Arrays.copyOf(path, Math.max(word.length() + 1, 2 * old));
+        for (int i = old; i < path.length; i++) {
+          path[i] = new OpenState();
+        }
+      }
+      for (int i = prefix; i < word.length(); i++) {
+        path[i].addArc(word.charAt(i));
+        path[i + 1].clear();
+      }
+      path[word.length()].isFinal = true;
+      last = word;
+    }
+
+    // Freezes the open states of the last word deeper than depth.
+    private void freeze(int depth) {
+      for (int i = last.length(); i > depth; i--) {
+        OpenState parent = path[i - 1];
+        parent.targets[parent.count - 1] = freeze(path[i]);
+      }
+    }
+
+    // Returns the frozen state equivalent to an open one, freezing it if
+    // there is none.
+    private int freeze(OpenState state) {
+      int[] key = new int[1 + 2 * state.count];
+      key[0] = state.isFinal ? 1 : 0;
+      for (int k = 0; k < state.count; k++) {
+        key[1 + 2 * k] = state.labels[k];
+        key[2 + 2 * k] = state.targets[k];
+      }
+      Signature signature = new Signature(key);
+      Integer frozen = register.get(signature);
+      if (frozen != null) {
+        return frozen;
+      }
+
+      int id = stateCount++;
+      if (id + 2 > arcStarts.length) {
+        arcStarts = Arrays.copyOf(arcStarts, 2 * arcStarts.length);
+        wordCounts = Arrays.copyOf(wordCounts, 2 * wordCounts.length);
+      }
+      if ((id >>> 6) >= finals.length) {
+        finals = Arrays.copyOf(finals, 2 * finals.length);
+      }
+      if (arcCount + state.count > labels.length) {
+        int capacity = Math.max(arcCount + state.count, 2 * labels.length);
+        labels = Arrays.copyOf(labels, capacity);
+        targets = Arrays.copyOf(targets, capacity);
+        outputs = Arrays.copyOf(outputs, capacity);
+      }
+
+      // A word ending here sorts before every word continuing past it.
+      int words = state.isFinal ? 1 : 0;
+      if (state.isFinal) {
+        finals[id >>> 6] |= 1L << id;
+      }
+      for (int k = 0; k < state.count; k++) {
+        labels[arcCount] = state.labels[k];
+        targets[arcCount] = state.targets[k];
+        outputs[arcCount] = words;
+        words += wordCounts[state.targets[k]];
+        arcCount++;
+      }
+      arcStarts[id + 1] = arcCount;
+      wordCounts[id] = words;
+      register.put(signature, id);
+      return id;
+    }
+
+    private Lexicon finish(int[] pronunciationStarts, byte[] pronunciations,
+                           SymbolTable phones) {
+      if (last != null) {
+        freeze(0);
+      }
+      int root = freeze(path[0]);
+      if (wordCounts[root] != pronunciationStarts.length - 1) {
+        throw new IllegalStateException();
+      }
+      return new Lexicon(Arrays.copyOf(arcStarts, stateCount + 1),
+              Arrays.copyOf(labels, arcCount), Arrays.copyOf(targets, arcCount),
+              Arrays.copyOf(outputs, arcCount),
+              Arrays.copyOf(finals, (stateCount + 63) >>> 6), root,
+              pronunciationStarts, pronunciations, phones);
+    }
+  }
+
+  // A state along the path of the last word added to a Builder, whose last
+  // arc leads to the next open state until that state is frozen.
+  private static class OpenState {
+    private char[] labels = new char[4];
+    private int[] targets = new int[4];
+    private int count;
+    private boolean isFinal;
+
+    private void addArc(char label) {
+      if (count == labels.length) {
+        labels = Arrays.copyOf(labels, 2 * count);
+        targets = Arrays.copyOf(targets, 2 * count);
+      }
+      labels[count] = label;
+      targets[count++] = -1;
+    }
+
+    private void clear() {
+      count = 0;
+      isFinal = false;
+    }
+  }
+
+  // The finality and arcs of a frozen state, for finding equivalent states.
+  private static class Signature {
+    private final int[] key;
+    private final int hash;
+
+    private Signature(int[] key) {
+      this.key = key;
+      this.hash = Arrays.hashCode(key);
+    }
+
+    public boolean equals(Object o) {
+      return o instanceof Signature && Arrays.equals(key, ((Signature) o).key);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -1,28 +1,51 @@
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class Main {
 
     public static void main(String[] args) throws IOException {
-        File file = new File("corpus_test.txt");
-        BufferedReader readFile = new BufferedReader(new FileReader(file));
-        ParseModifiedBoston pmb = new ParseModifiedBoston();
-        pmb.parseFile(readFile);
-        // System.out.println(pmb.getNetwork());
-        GraphemeToPhonemeCalculator gp_calculator = new GraphemeToPhonemeCalculator(pmb.getNetwork(),
-                pmb.getTransitions(),pmb.getGraphemes(), pmb.getNormalizedPhones());
-        SimpleGraphemePhoneme sgp_calculator = new SimpleGraphemePhoneme(pmb.getNetwork(),
-                pmb.getTransitions(),pmb.getGraphemes(), pmb.getNormalizedPhones());
+        // A model file may be given to skip parsing and training on the corpus.
+        CompiledModel model;
+        if (args.length > 0) {
+            model = ModelFile.map(Paths.get(args[0]));
+        } else {
+            File file = new File("corpus_test.txt");
+            BufferedReader readFile = new BufferedReader(new FileReader(file));
+            ParseModifiedBoston pmb = new ParseModifiedBoston();
+            pmb.parseFile(readFile);
+            // System.out.println(pmb.getNetwork());
+            model = pmb.compile();
+        }
+        GraphemeToPhonemeCalculator gp_calculator = new GraphemeToPhonemeCalculator(model);
+        SimpleGraphemePhoneme sgp_calculator = new SimpleGraphemePhoneme(model);
 
         BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
         String inputLine;
         System.out.println("Here are the available graphemes: ");
-        Set<String> graphs = new TreeSet<String>(pmb.getGraphemes().keySet());
+        Set<String> graphs = new TreeSet<String>();
+        for (int g = 0; g < model.graphemes().size(); g++) {
+            if (model.graphemePrior(g) > 0) {
+                graphs.add(model.graphemes().symbol(g));
+            }
+        }
         System.out.println(graphs);
         System.out.println("Each pair of graphemes should have a hyphen between them: ");
         System.out.println("Example: wh-a-t");
+        System.out.println("A word without hyphens is segmented automatically.");
         System.out.print("Please provide a string to parse using these graphemes: ");
         while ((inputLine = console.readLine()) != null && !inputLine.equals("quit")) {
+            if (inputLine.indexOf('-') < 0) {
+                Pronunciation best = gp_calculator.calculatePronunciation(inputLine);
+                if (best != null) {
+                    System.out.println("Segmented as " + best.getGraphemes() + ": " +
+                                       best.getPhones());
+                } else {
+                    System.out.println("Could not segment " + inputLine);
+                }
+                System.out.print("Please provide a string to parse using these graphemes: ");
+                continue;
+            }
             System.out.println("Using the modified Viterbi algorithm: " +
                                 gp_calculator.calculatePhoneme(inputLine));
             System.out.println("Baseline: " +
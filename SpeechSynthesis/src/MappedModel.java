@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A CompiledModel whose tables are read in place from a buffer holding a
+ * model file, typically a memory-mapped one or a direct buffer filled by
+ * ModelFile.copyOffHeap. See ModelFile for the layout.
+ */
+class MappedModel extends CompiledModel {
+
+  private final DoubleBuffer graphemePriors;
+  private final DoubleBuffer phonePriors;
+  private final IntBuffer emissionOffsets;
+  private final IntBuffer emissionPhones;
+  private final DoubleBuffer emissionProbs;
+  private final DoubleBuffer initialProbs;
+  private final DoubleBuffer emissionLogProbs;
+  private final DoubleBuffer initialLogProbs;
+  private final IntBuffer transitionOffsets;
+  private final IntBuffer transitionTargets;
+  private final DoubleBuffer transitionProbs;
+  private final DoubleBuffer transitionLogProbs;
+
+  /**
+   * Constructor for a MappedModel
+   * @param graphemes the symbol table of graphemes
+   * @param phones the symbol table of phones
+   * @param buffer the model file, positioned at its integer tables and
+   *               ordered by ModelFile.ORDER
+   */
+  MappedModel(SymbolTable graphemes, SymbolTable phones, ByteBuffer buffer) {
+    super(graphemes, phones);
+    int g = graphemes.size();
+    int p = phones.size();
+    int start = buffer.position();
+
+    IntBuffer ints = buffer.asIntBuffer();
+    this.emissionOffsets = slice(ints, 0, g + 1);
+    int e = emissionOffsets.get(g);
+    this.emissionPhones = slice(ints, g + 1, e);
+    this.transitionOffsets = slice(ints, g + 1 + e, p + 1);
+    int t = transitionOffsets.get(p);
+    this.transitionTargets = slice(ints, g + 1 + e + p + 1, t);
+
+    int intBytes = 4 * (g + 1 + e + p + 1 + t);
+    buffer.position(start + ModelFile.align(intBytes));
+    DoubleBuffer doubles = buffer.asDoubleBuffer();
+    int at = 0;
+    this.graphemePriors = slice(doubles, at, g);
+    this.phonePriors = slice(doubles, at += g, p);
+    this.emissionProbs = slice(doubles, at += p, e);
+    this.initialProbs = slice(doubles, at += e, e);
+    this.emissionLogProbs = slice(doubles, at += e, e);
+    this.initialLogProbs = slice(doubles, at += e, e);
+    this.transitionProbs = slice(doubles, at += e, t);
+    this.transitionLogProbs = slice(doubles, at + t, t);
+  }
+
+  private static IntBuffer slice(IntBuffer buffer, int offset, int length) {
+    IntBuffer res = buffer.duplicate();
+    res.position(offset);
+    res.limit(offset + length);
+    return res.slice();
+  }
+
+  private static DoubleBuffer slice(DoubleBuffer buffer, int offset, int length) {
+    DoubleBuffer res = buffer.duplicate();
+    res.position(offset);
+    res.limit(offset + length);
+    return res.slice();
+  }
+
+  protected long tableFootprint() {
+    return 8L * (graphemePriors.capacity() + phonePriors.capacity())
+            + 4L * (emissionOffsets.capacity() + emissionPhones.capacity())
+            + 8L * (emissionProbs.capacity() + initialProbs.capacity()
+                    + emissionLogProbs.capacity() + initialLogProbs.capacity())
+            + 4L * (transitionOffsets.capacity() + transitionTargets.capacity())
+            + 8L * (transitionProbs.capacity() + transitionLogProbs.capacity());
+  }
+
+  public double graphemePrior(int g) {
+    return graphemePriors.get(g);
+  }
+
+  public double phonePrior(int p) {
+    return phonePriors.get(p);
+  }
+
+  public int emissionStart(int g) {
+    return emissionOffsets.get(g);
+  }
+
+  public int emissionPhone(int k) {
+    return emissionPhones.get(k);
+  }
+
+  public double emissionProb(int k) {
+    return emissionProbs.get(k);
+  }
+
+  public double initialProb(int k) {
+    return initialProbs.get(k);
+  }
+
+  public double emissionLogProb(int k) {
+    return emissionLogProbs.get(k);
+  }
+
+  public double initialLogProb(int k) {
+    return initialLogProbs.get(k);
+  }
+
+  public int transitionStart(int a) {
+    return transitionOffsets.get(a);
+  }
+
+  public int transitionTarget(int k) {
+    return transitionTargets.get(k);
+  }
+
+  public double transitionProbAt(int k) {
+    return transitionProbs.get(k);
+  }
+
+  public double transitionLogProbAt(int k) {
+    return transitionLogProbs.get(k);
+  }
+}
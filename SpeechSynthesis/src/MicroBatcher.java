@@ -0,0 +1,159 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Coalesces requests submitted concurrently from many threads into batches
+ * for a single decoding call.
+ * <p>
+ *
+ * A dispatcher thread waits for a request, then gathers every request
+ * queued behind it, up to maxBatch, lingering up to maxDelay for more to
+ * arrive. The batch is decoded at once and each submitter's future is
+ * completed with its own result. Requests arriving while a batch is being
+ * decoded queue up to form the next one, so batches grow with the load
+ * and an idle batcher adds no more than maxDelay to a request.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+  private final Function<List<String>, List<String>> decoder;
+  private final int maxBatch;
+  private final long maxDelayNanos;
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final Thread dispatcher;
+  private volatile boolean closed;
+
+  /**
+   * Constructor for a MicroBatcher, starting its dispatcher thread
+   * @param decoder decodes a batch, returning results in the same order
+   * @param maxBatch the largest number of requests decoded at once
+   * @param maxDelay how long to wait for a batch to fill after its first
+   *                 request arrives
+   * @param unit the unit of maxDelay
+   * @throws IllegalArgumentException if maxBatch is less than 1 or
+   *         maxDelay is negative
+   */
+  public MicroBatcher(Function<List<String>, List<String>> decoder,
+                      int maxBatch, long maxDelay, TimeUnit unit) {
+    if (maxBatch < 1 || maxDelay < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.decoder = decoder;
+    this.maxBatch = maxBatch;
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.dispatcher = new Thread(this::dispatch, "micro-batcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Queues a request for the next batch.
+   * @param input the input to decode
+   * @return Returns a future completed with the input's result, which may
+   *         be null, or exceptionally if decoding its batch failed
+   * @throws RejectedExecutionException if the batcher has been closed
+   */
+  public CompletableFuture<String> submit(String input) {
+    if (closed) {
+      throw new RejectedExecutionException();
+    }
+    Request request = new Request(input);
+    queue.add(request);
+
+    // A request queued while closing may have missed the dispatcher.
+    if (closed && queue.remove(request)) {
+      throw new RejectedExecutionException();
+    }
+    return request.result;
+  }
+
+  /**
+   * @return Returns the number of requests waiting for a batch
+   */
+  public int getPending() {
+    return queue.size();
+  }
+
+  /**
+   * Stops the dispatcher. Requests not yet batched are failed with a
+   * CancellationException.
+   * @modifies this
+   */
+  public void close() {
+    closed = true;
+    dispatcher.interrupt();
+    try {
+      dispatcher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.result.cancel(false);
+    }
+  }
+
+  // Decodes batches until closed.
+  private void dispatch() {
+    List<Request> batch = new ArrayList<>(maxBatch);
+    while (!closed) {
+      try {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatch) {
+          queue.drainTo(batch, maxBatch - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= maxBatch || remaining <= 0) {
+            break;
+          }
+          Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        for (Request request : batch) {
+          request.result.cancel(false);
+        }
+        return;
+      }
+
+      decode(batch);
+      batch.clear();
+    }
+  }
+
+  // Decodes one batch and completes its futures, exceptionally with
+  // whatever the decoder threw.
+  private void decode(List<Request> batch) {
+    List<String> inputs = new ArrayList<>(batch.size());
+    for (Request request : batch) {
+      inputs.add(request.input);
+    }
+    try {
+      List<String> results = decoder.apply(inputs);
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).result.complete(results.get(i));
+      }
+    } catch (Throwable e) {
+
+      // Errors are failed with the batch too, such as running out of
+      // memory on one oversized batch, so that the dispatcher survives to
+      // answer the requests queued behind it.
+      for (Request request : batch) {
+        request.result.completeExceptionally(e);
+      }
+    }
+  }
+
+  // One queued input and the future awaiting its result.
+  private static class Request {
+    private final String input;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private Request(String input) {
+      this.input = input;
+    }
+  }
+}
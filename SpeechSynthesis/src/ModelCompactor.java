@@ -0,0 +1,211 @@
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Shrinks compiled models so that more of them fit in memory at once.
+ * <p>
+ *
+ * Emissions and transitions whose probability falls below a threshold are
+ * dropped, other than the most probable edge of each row, and the edges
+ * left in each row are renormalized to sum to one. The probabilities kept
+ * may then be quantized to floats or to 8 or 16-bit log bucket codes, see
+ * Quantization. Edges observed too few times are better dropped before
+ * compiling, with ParseModifiedBoston.setMinCount.
+ */
+public class ModelCompactor {
+
+  private double minProbability;
+  private Quantization quantization = Quantization.NONE;
+
+  /**
+   * Sets the probability below which edges are dropped. Defaults to 0,
+   * which keeps every edge.
+   * @param minProbability the least probability of a kept edge
+   * @modifies this
+   * @throws IllegalArgumentException if minProbability is not within [0, 1]
+   */
+  public void setMinProbability(double minProbability) {
+    if (!(minProbability >= 0 && minProbability <= 1)) {
+      throw new IllegalArgumentException();
+    }
+    this.minProbability = minProbability;
+  }
+
+  /**
+   * Sets how the probabilities of compacted models are stored. Defaults
+   * to Quantization.NONE.
+   * @param quantization the precision to store probabilities at
+   * @modifies this
+   */
+  public void setQuantization(Quantization quantization) {
+    this.quantization = quantization;
+  }
+
+  /**
+   * Compacts a model. The model itself is left unchanged.
+   * @param model the model to compact
+   * @return Returns the compacted model
+   */
+  public CompiledModel compact(CompiledModel model) {
+    int g = model.graphemes().size();
+    int p = model.phones().size();
+
+    double[] graphemePriors = new double[g];
+    for (int i = 0; i < g; i++) {
+      graphemePriors[i] = model.graphemePrior(i);
+    }
+    double[] phonePriors = new double[p];
+    for (int i = 0; i < p; i++) {
+      phonePriors[i] = model.phonePrior(i);
+    }
+
+    int[] emissionOffsets = new int[g + 1];
+    for (int i = 0; i < g; i++) {
+      emissionOffsets[i + 1] = emissionOffsets[i]
+              + keptEdges(model.emissionStart(i), model.emissionEnd(i), model::emissionProb);
+    }
+    int[] emissionPhones = new int[emissionOffsets[g]];
+    double[] emissionProbs = new double[emissionPhones.length];
+    double[] initialProbs = new double[emissionPhones.length];
+    for (int i = 0; i < g; i++) {
+      keepEdges(model.emissionStart(i), model.emissionEnd(i), model::emissionProb,
+                model::emissionPhone, emissionOffsets[i], emissionPhones, emissionProbs);
+
+      // Words begin with the prior of their first phone if it has one,
+      // else with the emission probability, as in CompiledModel.compile.
+      for (int k = emissionOffsets[i]; k < emissionOffsets[i + 1]; k++) {
+        double prior = phonePriors[emissionPhones[k]];
+        initialProbs[k] = prior > 0 ? prior : emissionProbs[k];
+      }
+    }
+
+    int[] transitionOffsets = new int[p + 1];
+    for (int a = 0; a < p; a++) {
+      transitionOffsets[a + 1] = transitionOffsets[a]
+              + keptEdges(model.transitionStart(a), model.transitionEnd(a),
+                          model::transitionProbAt);
+    }
+    int[] transitionTargets = new int[transitionOffsets[p]];
+    double[] transitionProbs = new double[transitionTargets.length];
+    for (int a = 0; a < p; a++) {
+      keepEdges(model.transitionStart(a), model.transitionEnd(a), model::transitionProbAt,
+                model::transitionTarget, transitionOffsets[a], transitionTargets,
+                transitionProbs);
+    }
+
+    if (quantization == Quantization.NONE) {
+      return new ArrayModel(model.graphemes(), model.phones(), graphemePriors,
+                            phonePriors, emissionOffsets, emissionPhones,
+                            emissionProbs, initialProbs, transitionOffsets,
+                            transitionTargets, transitionProbs);
+    }
+    return new QuantizedModel(model.graphemes(), model.phones(), graphemePriors,
+                              phonePriors, emissionOffsets, emissionPhones,
+                              emissionProbs, initialProbs, transitionOffsets,
+                              transitionTargets, transitionProbs, quantization);
+  }
+
+  // Returns the number of edges of the row [start, end) that are kept.
+  private int keptEdges(int start, int end, IntToDoubleFunction probs) {
+    int best = bestEdge(start, end, probs);
+    int res = 0;
+    for (int k = start; k < end; k++) {
+      if (k == best || probs.applyAsDouble(k) >= minProbability) {
+        res++;
+      }
+    }
+    return res;
+  }
+
+  // Copies the kept edges of the row [start, end) to the row beginning at
+  // "at", renormalizing their probabilities.
+  private void keepEdges(int start, int end, IntToDoubleFunction probs,
+                         IntUnaryOperator targets, int at,
+                         int[] keptTargets, double[] keptProbs) {
+    int best = bestEdge(start, end, probs);
+    double total = 0.0;
+    int i = at;
+    for (int k = start; k < end; k++) {
+      if (k == best || probs.applyAsDouble(k) >= minProbability) {
+        keptTargets[i] = targets.applyAsInt(k);
+        keptProbs[i] = probs.applyAsDouble(k);
+        total += keptProbs[i];
+        i++;
+      }
+    }
+    for (int j = at; j < i; j++) {
+      keptProbs[j] = total > 0 ? keptProbs[j] / total : keptProbs[j];
+    }
+  }
+
+  // Returns the most probable edge of the row [start, end), or -1 if the
+  // row is empty.
+  private static int bestEdge(int start, int end, IntToDoubleFunction probs) {
+    int res = -1;
+    for (int k = start; k < end; k++) {
+      if (res < 0 || probs.applyAsDouble(k) > probs.applyAsDouble(res)) {
+        res = k;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Trains a model, compacts it, and reports the memory saved and the
+   * change in accuracy on a gold standard.
+   * @param args corpus_file gold_file [min_probability] [quantization]
+   *             [min_count] [model_file]: the compacted model is written
+   *             to model_file if one is given
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: ModelCompactor corpus_file gold_file "
+              + "[min_probability] [NONE|FLOAT|LOG16|LOG8] [min_count] [model_file]");
+      System.exit(1);
+    }
+    Path goldPath = Paths.get(args[1]);
+
+    ParseModifiedBoston pmb = new ParseModifiedBoston();
+    pmb.parseFile(new BufferedReader(new FileReader(args[0])));
+    CompiledModel original = pmb.compile();
+
+    ParseModifiedBoston pruned = new ParseModifiedBoston();
+    if (args.length > 4) {
+      pruned.setMinCount(Double.parseDouble(args[4]));
+    }
+    pruned.parseFile(new BufferedReader(new FileReader(args[0])));
+    ModelCompactor compactor = new ModelCompactor();
+    if (args.length > 2) {
+      compactor.setMinProbability(Double.parseDouble(args[2]));
+    }
+    if (args.length > 3) {
+      compactor.setQuantization(Quantization.valueOf(args[3]));
+    }
+    CompiledModel compacted = compactor.compact(pruned.compile());
+
+    Evaluation before = Evaluation.evaluate(goldPath,
+            new GraphemeToPhonemeCalculator(original)::calculatePhoneme);
+    Evaluation after = Evaluation.evaluate(goldPath,
+            new GraphemeToPhonemeCalculator(compacted)::calculatePhoneme);
+
+    long saved = original.getFootprint() - compacted.getFootprint();
+    System.out.println("Footprint: " + original.getFootprint() + " -> "
+            + compacted.getFootprint() + " bytes (" + saved + " saved, "
+            + String.format("%.1f%%", 100.0 * saved / original.getFootprint()) + ")");
+    System.out.println("Emissions: " + original.emissionStart(original.graphemes().size())
+            + " -> " + compacted.emissionStart(compacted.graphemes().size())
+            + " Transitions: " + original.transitionStart(original.phones().size())
+            + " -> " + compacted.transitionStart(compacted.phones().size()));
+    System.out.println("Precision: " + before.getPrecision() + " -> " + after.getPrecision()
+            + " (" + String.format("%+.4f", after.getPrecision() - before.getPrecision()) + ")");
+    System.out.println("Recall: " + before.getRecall() + " -> " + after.getRecall()
+            + " (" + String.format("%+.4f", after.getRecall() - before.getRecall()) + ")");
+
+    if (args.length > 5) {
+      ModelFile.write(compacted, Paths.get(args[5]));
+    }
+  }
+}
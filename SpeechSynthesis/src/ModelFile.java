@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Reads and writes compiled models in a versioned binary format.
+ * <p>
+ *
+ * A model file is written once after training and then memory-mapped by
+ * every process that decodes with it. The decoder reads the mapped tables in
+ * place, so loading a model costs little more than building its symbol
+ * tables, and processes on the same host share the model's pages through
+ * the page cache.
+ * <p>
+ *
+ * All values are little-endian. The layout is:
+ * <pre>
+ *   int magic, int version
+ *   int graphemeCount G, int phoneCount P, int emissionCount E, int transitionCount T
+ *   G + P symbols, graphemes first, each an int byte length followed by UTF-8 bytes
+ *   padding to a multiple of 8 bytes
+ *   int[G + 1] emissionOffsets, int[E] emissionPhones,
+ *   int[P + 1] transitionOffsets, int[T] transitionTargets
+ *   padding to a multiple of 8 bytes
+ *   double[G] graphemePriors, double[P] phonePriors,
+ *   double[E] emissionProbs, double[E] initialProbs,
+ *   double[E] emissionLogProbs, double[E] initialLogProbs,
+ *   double[T] transitionProbs, double[T] transitionLogProbs
+ * </pre>
+ * A single file may be at most 2GB, the limit of a mapped buffer.
+ * <p>
+ *
+ * The Lexicon of a model is written to a file of its own alongside the
+ * model file, and read back into the heap. Its layout is:
+ * <pre>
+ *   int lexiconMagic, int version
+ *   int wordCount N, int phoneCount P, int stateCount S, int arcCount A,
+ *   int pronunciationLength L, int root
+ *   P symbols, each an int byte length followed by UTF-8 bytes
+ *   padding to a multiple of 8 bytes
+ *   long[(S + 63) / 64] finals,
+ *   int[S + 1] arcStarts, int[A] arcTargets, int[A] arcOutputs,
+ *   int[N + 1] pronunciationStarts,
+ *   char[A] arcLabels, byte[L] pronunciationPhones
+ * </pre>
+ */
+public class ModelFile {
+
+  public static final int MAGIC = 0x4732504d; // "G2PM"
+  public static final int VERSION = 1;
+  public static final int LEXICON_MAGIC = 0x4732504c; // "G2PL"
+  static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private static final int HEADER_BYTES = 24;
+
+  /**
+   * Writes a compiled model to a file, replacing the file if it exists.
+   * @param model the model to write
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(CompiledModel model, Path path) throws IOException {
+    ByteBuffer buffer = encode(model, false);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  // Lays a model out in a new buffer in the format of a model file,
+  // allocated outside of the heap if direct. Returns the buffer ready
+  // to be read from the start.
+  private static ByteBuffer encode(CompiledModel model, boolean direct) throws IOException {
+    int g = model.graphemes().size();
+    int p = model.phones().size();
+    int e = model.emissionStart(g);
+    int t = model.transitionStart(p);
+
+    byte[][] symbols = new byte[g + p][];
+    long symbolBytes = 0;
+    for (int i = 0; i < g + p; i++) {
+      String symbol = i < g ? model.graphemes().symbol(i) : model.phones().symbol(i - g);
+      symbols[i] = symbol.getBytes(StandardCharsets.UTF_8);
+      symbolBytes += 4 + symbols[i].length;
+    }
+    long intBytes = 4L * (g + 1 + e + p + 1 + t);
+    long doubleBytes = 8L * (g + p + 4L * e + 2L * t);
+    long size = align(HEADER_BYTES + symbolBytes) + align(intBytes) + doubleBytes;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Model too large for a single file: " + size + " bytes");
+    }
+
+    ByteBuffer buffer = (direct ? ByteBuffer.allocateDirect((int) size)
+            : ByteBuffer.allocate((int) size)).order(ORDER);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(g).putInt(p).putInt(e).putInt(t);
+    for (byte[] symbol : symbols) {
+      buffer.putInt(symbol.length).put(symbol);
+    }
+    buffer.position(align(buffer.position()));
+
+    int ints = buffer.position();
+    for (int i = 0; i <= g; i++) {
+      buffer.putInt(model.emissionStart(i));
+    }
+    for (int k = 0; k < e; k++) {
+      buffer.putInt(model.emissionPhone(k));
+    }
+    for (int a = 0; a <= p; a++) {
+      buffer.putInt(model.transitionStart(a));
+    }
+    for (int k = 0; k < t; k++) {
+      buffer.putInt(model.transitionTarget(k));
+    }
+    buffer.position(ints + align((int) intBytes));
+
+    for (int i = 0; i < g; i++) {
+      buffer.putDouble(model.graphemePrior(i));
+    }
+    for (int i = 0; i < p; i++) {
+      buffer.putDouble(model.phonePrior(i));
+    }
+    for (int k = 0; k < e; k++) {
+      buffer.putDouble(model.emissionProb(k));
+    }
+    for (int k = 0; k < e; k++) {
+      buffer.putDouble(model.initialProb(k));
+    }
+    for (int k = 0; k < e; k++) {
+      buffer.putDouble(model.emissionLogProb(k));
+    }
+    for (int k = 0; k < e; k++) {
+      buffer.putDouble(model.initialLogProb(k));
+    }
+    for (int k = 0; k < t; k++) {
+      buffer.putDouble(model.transitionProbAt(k));
+    }
+    for (int k = 0; k < t; k++) {
+      buffer.putDouble(model.transitionLogProbAt(k));
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Memory-maps a model file. The mapping stays valid after the file is
+   * closed and lives as long as the returned model is reachable.
+   * @param path the model file
+   * @return The model, reading its tables directly from the mapped file
+   * @throws IOException if the file cannot be read or is not a model file
+   *         of a supported version
+   */
+  public static CompiledModel map(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Not a model file: " + path);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    return read(buffer.order(ORDER), path.toString(), false);
+  }
+
+  /**
+   * Memory-maps a model file, keeping its symbol tables in direct buffers
+   * too, so that the model holds next to nothing on the heap however large
+   * it is. Lookups of symbols are slightly slower than in a model returned
+   * by map(), and each lookup of a symbol by ID creates a String.
+   * @param path the model file
+   * @return The model, reading its tables directly from the mapped file
+   * @throws IOException if the file cannot be read or is not a model file
+   *         of a supported version
+   */
+  public static CompiledModel mapOffHeap(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Not a model file: " + path);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    return read(buffer.order(ORDER), path.toString(), true);
+  }
+
+  /**
+   * Copies a compiled model into direct buffers outside of the heap, for
+   * serving a large model without writing it to a file first. The tables
+   * are read in place as they are from a mapped model file.
+   * @param model the model to copy, which may be discarded afterwards
+   * @return The copy, holding next to nothing on the heap
+   * @throws IOException if the model exceeds the 2GB limit of a buffer
+   */
+  public static CompiledModel copyOffHeap(CompiledModel model) throws IOException {
+    return read(encode(model, true), "in-memory model", true);
+  }
+
+  // Parses the header and symbol tables of a model file held in buffer,
+  // building the symbol tables in direct buffers if offHeap.
+  static CompiledModel read(ByteBuffer buffer, String name, boolean offHeap) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a model file: " + name);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported model file version " + version + ": " + name);
+      }
+      int g = buffer.getInt();
+      int p = buffer.getInt();
+      buffer.getInt(); // emissionCount, implied by the emission offsets
+      buffer.getInt(); // transitionCount, implied by the transition offsets
+
+      SymbolTable graphemes;
+      SymbolTable phones;
+      if (offHeap) {
+        graphemes = new DirectSymbolTable(buffer, g);
+        phones = new DirectSymbolTable(buffer, p);
+      } else {
+        String[] symbols = new String[g + p];
+        for (int i = 0; i < symbols.length; i++) {
+          byte[] bytes = new byte[buffer.getInt()];
+          buffer.get(bytes);
+          symbols[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        graphemes = SymbolTable.of(Arrays.asList(symbols).subList(0, g));
+        phones = SymbolTable.of(Arrays.asList(symbols).subList(g, g + p));
+      }
+      buffer.position(align(buffer.position()));
+      return new MappedModel(graphemes, phones, buffer.slice().order(ORDER));
+    } catch (RuntimeException ex) {
+      throw new IOException("Corrupt model file: " + name, ex);
+    }
+  }
+
+  /**
+   * Writes a lexicon to a file, replacing the file if it exists.
+   * @param lexicon the lexicon to write
+   * @param path the file to write to
+   * @throws IOException if the file cannot be written, or the lexicon
+   *         exceeds the 2GB limit of a buffer
+   */
+  public static void writeLexicon(Lexicon lexicon, Path path) throws IOException {
+    long size = 8 + lexicon.encodedBytes();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Lexicon too large for a single file: " + size + " bytes");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ORDER);
+    buffer.putInt(LEXICON_MAGIC).putInt(VERSION);
+    lexicon.encode(buffer);
+    buffer.flip();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Reads a lexicon file into the heap. The file is mapped only while it
+   * is read.
+   * @param path the lexicon file
+   * @return The lexicon
+   * @throws IOException if the file cannot be read or is not a lexicon
+   *         file of a supported version
+   */
+  public static Lexicon readLexicon(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Not a lexicon file: " + path);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ORDER);
+    try {
+      if (buffer.getInt() != LEXICON_MAGIC) {
+        throw new IOException("Not a lexicon file: " + path);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported lexicon file version " + version + ": " + path);
+      }
+      return Lexicon.decode(buffer);
+    } catch (RuntimeException ex) {
+      throw new IOException("Corrupt lexicon file: " + path, ex);
+    }
+  }
+
+  // Rounds a byte count up to a multiple of 8.
+  static int align(int bytes) {
+    return (bytes + 7) & ~7;
+  }
+
+  static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  /**
+   * Trains a model from a corpus and writes it as a model file, and the
+   * words of the corpus as a lexicon file if one is given.
+   * Usage: ModelFile corpus_file model_file [lexicon_file]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.out.println("Usage: ModelFile corpus_file model_file [lexicon_file]");
+      return;
+    }
+
+    BufferedReader readFile = new BufferedReader(new FileReader(args[0]));
+    ParseModifiedBoston pmb = new ParseModifiedBoston();
+    pmb.setCollectLexicon(args.length == 3);
+    pmb.parseFile(readFile);
+    write(pmb.compile(), Paths.get(args[1]));
+    if (args.length == 3) {
+      writeLexicon(pmb.compileLexicon(), Paths.get(args[2]));
+    }
+  }
+}
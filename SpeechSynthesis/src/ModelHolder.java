@@ -0,0 +1,191 @@
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holds the model currently being served, and swaps in retrained models
+ * without restarting the process.
+ * <p>
+ *
+ * Each model is published as an immutable ModelSnapshot through an atomic
+ * reference. A reader takes the current snapshot once per call and decodes
+ * entirely within it, so it always sees a complete model, and publishing a
+ * new snapshot never waits for readers or makes readers wait. Calls that
+ * began on the old snapshot finish on it; the holder keeps no reference to
+ * old snapshots, which are reclaimed by the garbage collector once the last
+ * of those calls returns.
+ * <p>
+ *
+ * Models are retrained or reloaded on a single background thread, one at a
+ * time and in the order they were requested. A calculator is built for each
+ * new model and given to an optional configuration hook, e.g. to set its
+ * scoring mode or cache, before the snapshot is published.
+ */
+public class ModelHolder implements AutoCloseable {
+
+  private final AtomicReference<ModelSnapshot> current = new AtomicReference<>();
+  private final Consumer<? super GraphemeToPhonemeCalculator> configure;
+  private final ExecutorService loader;
+
+  /**
+   * Constructor for a ModelHolder serving a compiled network
+   * @param model the compiled network to serve first
+   */
+  public ModelHolder(CompiledModel model) {
+    this(model, calculator -> { });
+  }
+
+  /**
+   * Constructor for a ModelHolder serving a compiled network, configuring
+   * the calculator built for every model it serves
+   * @param model the compiled network to serve first
+   * @param configure applied to each calculator before it is published
+   */
+  public ModelHolder(CompiledModel model,
+                     Consumer<? super GraphemeToPhonemeCalculator> configure) {
+    this.configure = configure;
+    this.loader = newLoader();
+    publish(model);
+  }
+
+  /**
+   * Constructor for a ModelHolder serving an already configured calculator
+   * first. Calculators for later models are built with default options.
+   * @param calculator the calculator to serve first, which is not to be
+   *                   reconfigured afterwards
+   */
+  public ModelHolder(GraphemeToPhonemeCalculator calculator) {
+    this.configure = c -> { };
+    this.loader = newLoader();
+    current.set(new ModelSnapshot(calculator.getModel(), calculator, 1));
+  }
+
+  /**
+   * @return Returns the snapshot currently being served. Callers decoding
+   *         several words consistently should take it once and decode
+   *         every word with it.
+   */
+  public ModelSnapshot get() {
+    return current.get();
+  }
+
+  /**
+   * Calculates the most probable sequence of phonemes for a grapheme with
+   * the current model.
+   * @param grapheme a grapheme in which to return a sequence of
+   *                 phonemes for
+   */
+  public String calculatePhoneme(String grapheme) {
+    return current.get().getCalculator().calculatePhoneme(grapheme);
+  }
+
+  /**
+   * Calculates the most probable sequence of phonemes for each of a batch
+   * of graphemes, all with the model current when the call began.
+   * @param graphemes hyphen-segmented graphemes to return sequences of
+   *                  phonemes for
+   * @return Returns the sequences of phonemes in the same order as the
+   *         graphemes, as GraphemeToPhonemeCalculator.calculatePhonemes does
+   */
+  public List<String> calculatePhonemes(List<String> graphemes) {
+    return current.get().getCalculator().calculatePhonemes(graphemes);
+  }
+
+  /**
+   * Builds a calculator for a compiled network and publishes it as the
+   * current snapshot on the calling thread.
+   * @param model the compiled network to serve
+   * @return Returns the published snapshot
+   * @modifies this
+   */
+  public ModelSnapshot publish(CompiledModel model) {
+    GraphemeToPhonemeCalculator calculator = new GraphemeToPhonemeCalculator(model);
+    configure.accept(calculator);
+    return current.updateAndGet(old -> new ModelSnapshot(
+            model, calculator, old == null ? 1 : old.getVersion() + 1));
+  }
+
+  /**
+   * Trains a new model on a corpus in the background, then publishes it.
+   * The current model keeps being served meanwhile.
+   * @param corpus a UTF-8 file in the format of a modded Boston corpus
+   * @return Returns a future completed with the published snapshot, or
+   *         completed exceptionally if the corpus could not be read, in
+   *         which case the current model is kept
+   */
+  public CompletableFuture<ModelSnapshot> retrain(Path corpus) {
+    return reload(() -> {
+      ParseModifiedBoston pmb = new ParseModifiedBoston();
+      try (BufferedReader readFile = Files.newBufferedReader(corpus, StandardCharsets.UTF_8)) {
+        pmb.parseFile(readFile);
+      }
+      return pmb.compile();
+    });
+  }
+
+  /**
+   * Maps a model file in the background, then publishes it. A model file
+   * being served must not be modified; a new file should be written
+   * elsewhere and renamed over it instead.
+   * @param modelFile a model written by ModelFile.write
+   * @return Returns a future completed with the published snapshot, or
+   *         completed exceptionally if the file could not be mapped, in
+   *         which case the current model is kept
+   */
+  public CompletableFuture<ModelSnapshot> load(Path modelFile) {
+    return reload(() -> ModelFile.map(modelFile));
+  }
+
+  /**
+   * Builds a model in the background, then publishes it.
+   * @param source builds the compiled network to serve
+   * @return Returns a future completed with the published snapshot, or
+   *         completed exceptionally with whatever source threw, in which
+   *         case the current model is kept
+   */
+  public CompletableFuture<ModelSnapshot> reload(Callable<CompiledModel> source) {
+    CompletableFuture<ModelSnapshot> res = new CompletableFuture<>();
+    try {
+      loader.execute(() -> {
+        try {
+          res.complete(publish(source.call()));
+        } catch (Throwable e) {
+
+          // Errors such as running out of memory while retraining must
+          // still complete the future, or its callers would wait forever.
+          res.completeExceptionally(e);
+          if (e instanceof Error) {
+            throw (Error) e;
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      res.completeExceptionally(e);
+    }
+    return res;
+  }
+
+  /**
+   * Stops accepting retrains, letting any in progress finish. The current
+   * model keeps being served.
+   * @modifies this
+   */
+  public void close() {
+    loader.shutdown();
+  }
+
+  // Returns an executor running one load at a time on a daemon thread, so
+  // that an idle holder does not keep the process alive.
+  private static ExecutorService newLoader() {
+    return Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "model-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,370 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Maps model names, e.g. one per accent or language, to trained models,
+ * loading each on first use and keeping the loaded models within a memory
+ * budget.
+ * <p>
+ *
+ * A model is registered with the source it is loaded from: a corpus to
+ * train on, a model file to map, or any other way of building a
+ * CompiledModel. The first get() of a model loads it on the calling thread
+ * and builds a calculator for it; concurrent first requests for the same
+ * model wait on that one load rather than starting their own, while
+ * different models load in parallel. A failed load is not remembered, so
+ * the next request tries again.
+ * <p>
+ *
+ * Whenever a load completes and the footprints of the loaded models exceed
+ * the budget, the least recently used models are evicted until they fit,
+ * other than the model just loaded. The footprint of a model is that of
+ * its calculator once configured, which counts the model's tables along
+ * with the trigram model, lexicon and other structures the calculator
+ * decodes with, but not its pronunciation cache. Calculators already handed out for an
+ * evicted model keep working, and its memory is reclaimed once the last of
+ * them is dropped; the next request for it loads it again.
+ * <p>
+ *
+ * Registries are safe to use from any number of threads at once.
+ */
+public class ModelRegistry {
+
+  private final long budget;
+  private final Consumer<? super GraphemeToPhonemeCalculator> configure;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  // Orders uses of models, for finding the least recently used.
+  private final AtomicLong clock = new AtomicLong();
+
+  /**
+   * Constructor for a ModelRegistry
+   * @param budget the number of bytes the footprints of loaded models may
+   *               add up to before models are evicted
+   * @throws IllegalArgumentException if budget is negative
+   */
+  public ModelRegistry(long budget) {
+    this(budget, calculator -> { });
+  }
+
+  /**
+   * Constructor for a ModelRegistry configuring the calculator built for
+   * every model it loads
+   * @param budget the number of bytes the footprints of loaded models may
+   *               add up to before models are evicted
+   * @param configure applied to each calculator before it is handed out
+   * @throws IllegalArgumentException if budget is negative
+   */
+  public ModelRegistry(long budget, Consumer<? super GraphemeToPhonemeCalculator> configure) {
+    if (budget < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.budget = budget;
+    this.configure = configure;
+  }
+
+  /**
+   * Registers a model under a name, without loading it.
+   * @param name the name to register the model under
+   * @param source builds the model when it is first requested
+   * @modifies this
+   * @throws IllegalArgumentException if a model is already registered
+   *         under name
+   */
+  public void register(String name, Callable<CompiledModel> source) {
+    if (entries.putIfAbsent(name, new Entry(name, source)) != null) {
+      throw new IllegalArgumentException("Model already registered: " + name);
+    }
+  }
+
+  /**
+   * Registers a model trained on a corpus, without loading it.
+   * @param name the name to register the model under
+   * @param corpus a UTF-8 file in the format of a modded Boston corpus
+   * @modifies this
+   * @throws IllegalArgumentException if a model is already registered
+   *         under name
+   */
+  public void registerCorpus(String name, Path corpus) {
+    register(name, () -> {
+      ParseModifiedBoston pmb = new ParseModifiedBoston();
+      try (BufferedReader readFile = Files.newBufferedReader(corpus, StandardCharsets.UTF_8)) {
+        pmb.parseFile(readFile);
+      }
+      return pmb.compile();
+    });
+  }
+
+  /**
+   * Registers a model file, without mapping it.
+   * @param name the name to register the model under
+   * @param modelFile a model written by ModelFile.write
+   * @modifies this
+   * @throws IllegalArgumentException if a model is already registered
+   *         under name
+   */
+  public void registerModelFile(String name, Path modelFile) {
+    register(name, () -> ModelFile.map(modelFile));
+  }
+
+  /**
+   * Returns the calculator of a model, loading the model if it is not
+   * loaded. Only the first of any concurrent requests for a model that is
+   * not loaded loads it.
+   * @param name the name of the model
+   * @return Returns a calculator decoding with the model
+   * @throws IllegalArgumentException if no model is registered under name
+   * @throws IOException if the model could not be loaded, or the calling
+   *         thread was interrupted while waiting for it
+   */
+  public GraphemeToPhonemeCalculator get(String name) throws IOException {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      throw new IllegalArgumentException("No model registered as " + name);
+    }
+    entry.lastUsed = clock.incrementAndGet();
+
+    CompletableFuture<GraphemeToPhonemeCalculator> loading;
+    boolean owner = false;
+    synchronized (entry) {
+      loading = entry.loading;
+      if (loading == null) {
+        loading = new CompletableFuture<>();
+        entry.loading = loading;
+        owner = true;
+      }
+    }
+    if (owner) {
+      load(entry, loading);
+    }
+
+    try {
+      return loading.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading " + name);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Failed to load " + name, e.getCause());
+    }
+  }
+
+  // Loads the model of an entry, completing loading with its calculator,
+  // then evicts models until the loaded models fit in the budget.
+  private void load(Entry entry, CompletableFuture<GraphemeToPhonemeCalculator> loading) {
+    GraphemeToPhonemeCalculator calculator;
+    long start = System.nanoTime();
+    try {
+      CompiledModel model = entry.source.call();
+      calculator = new GraphemeToPhonemeCalculator(model);
+      configure.accept(calculator);
+      synchronized (entry) {
+        entry.loadNanos = System.nanoTime() - start;
+        entry.footprint = calculator.getFootprint();
+        entry.loads++;
+        entry.loaded = true;
+      }
+    } catch (Throwable e) {
+
+      // Errors such as running out of memory must still release the
+      // requests waiting on this load, and let later requests retry.
+      synchronized (entry) {
+        entry.loading = null;
+      }
+      loading.completeExceptionally(e);
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+      return;
+    }
+    loading.complete(calculator);
+    evict(entry);
+  }
+
+  // Evicts the least recently used models other than keep until the
+  // loaded models fit in the budget.
+  private synchronized void evict(Entry keep) {
+    List<Entry> loaded = new ArrayList<>();
+    long total = 0;
+    for (Entry entry : entries.values()) {
+      synchronized (entry) {
+        if (entry.loaded) {
+          loaded.add(entry);
+          total += entry.footprint;
+        }
+      }
+    }
+    loaded.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+    for (Entry entry : loaded) {
+      if (total <= budget) {
+        break;
+      }
+      if (entry != keep) {
+        synchronized (entry) {
+          entry.loading = null;
+          entry.loaded = false;
+          entry.evictions++;
+        }
+        total -= entry.footprint;
+      }
+    }
+  }
+
+  /**
+   * Evicts a model if it is loaded. Calculators already handed out for it
+   * keep working.
+   * @param name the name of the model
+   * @modifies this
+   * @throws IllegalArgumentException if no model is registered under name
+   */
+  public void evict(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      throw new IllegalArgumentException("No model registered as " + name);
+    }
+    synchronized (entry) {
+      if (entry.loaded) {
+        entry.loading = null;
+        entry.loaded = false;
+        entry.evictions++;
+      }
+    }
+  }
+
+  /**
+   * @return Returns the names of every registered model, sorted
+   */
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+  }
+
+  /**
+   * @return Returns the number of bytes the footprints of loaded models may
+   *         add up to
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * @return Returns the sum of the footprints of the loaded models
+   */
+  public long getLoadedFootprint() {
+    long total = 0;
+    for (Entry entry : entries.values()) {
+      synchronized (entry) {
+        if (entry.loaded) {
+          total += entry.footprint;
+        }
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @param name the name of a model
+   * @return Returns the current state of the model
+   * @throws IllegalArgumentException if no model is registered under name
+   */
+  public ModelStats getStats(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      throw new IllegalArgumentException("No model registered as " + name);
+    }
+    return entry.stats();
+  }
+
+  /**
+   * @return Returns the current state of every registered model, sorted
+   *         by name
+   */
+  public List<ModelStats> getStats() {
+    List<ModelStats> res = new ArrayList<>();
+    for (String name : getNames()) {
+      res.add(entries.get(name).stats());
+    }
+    return res;
+  }
+
+  // A registered model, guarded by its own lock other than lastUsed.
+  private static class Entry {
+    private final String name;
+    private final Callable<CompiledModel> source;
+    private volatile long lastUsed;
+
+    // The load of the model in progress or completed, null when the model
+    // is not loaded and no load is in progress.
+    private CompletableFuture<GraphemeToPhonemeCalculator> loading;
+    private boolean loaded;
+    private long footprint;
+    private long loadNanos;
+    private long loads;
+    private long evictions;
+
+    private Entry(String name, Callable<CompiledModel> source) {
+      this.name = name;
+      this.source = source;
+    }
+
+    private synchronized ModelStats stats() {
+      return new ModelStats(name, loaded, footprint, loadNanos, loads, evictions);
+    }
+  }
+
+  /**
+   * Registers the models listed in a file and transcribes words read from
+   * standard input with them, then reports the state of every model.
+   * Usage: ModelRegistry models_file budget_mb
+   * <p>
+   * Each line of models_file names a model followed by its corpus, or by
+   * a model file ending in ".g2pm". Each line of input names a model
+   * followed by a hyphen-segmented word.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("Usage: ModelRegistry models_file budget_mb");
+      return;
+    }
+
+    ModelRegistry registry = new ModelRegistry(Long.parseLong(args[1]) << 20);
+    for (String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+      String[] nameAndPath = line.trim().split("\\s+", 2);
+      if (nameAndPath.length < 2) {
+        continue;
+      }
+      Path path = Paths.get(nameAndPath[1]);
+      if (nameAndPath[1].endsWith(".g2pm")) {
+        registry.registerModelFile(nameAndPath[0], path);
+      } else {
+        registry.registerCorpus(nameAndPath[0], path);
+      }
+    }
+
+    BufferedReader input = new BufferedReader(
+            new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = input.readLine()) != null) {
+      String[] nameAndWord = line.trim().split("\\s+", 2);
+      if (nameAndWord.length < 2) {
+        continue;
+      }
+      String phones = registry.get(nameAndWord[0])
+              .calculatePhoneme(nameAndWord[1].toLowerCase());
+      System.out.println(nameAndWord[1] + "\t" + (phones == null ? "" : phones));
+    }
+    for (ModelStats stats : registry.getStats()) {
+      System.err.println(stats);
+    }
+  }
+}
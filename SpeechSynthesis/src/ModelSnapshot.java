@@ -0,0 +1,59 @@
+/**
+ * One published version of the model served by a ModelHolder: a compiled
+ * network together with the calculator built and configured for it.
+ * <p>
+ *
+ * A snapshot is complete before it is published and never changes after,
+ * so every word decoded through one snapshot is decoded with one model.
+ */
+public final class ModelSnapshot {
+
+  private final CompiledModel model;
+  private final GraphemeToPhonemeCalculator calculator;
+  private final long version;
+  private final long publishedAt;
+
+  /**
+   * Constructor for a ModelSnapshot
+   * @param model the compiled network of this snapshot
+   * @param calculator a calculator decoding with model, which is not to be
+   *                   reconfigured once the snapshot is published
+   * @param version the number of snapshots published before this one, plus 1
+   */
+  ModelSnapshot(CompiledModel model, GraphemeToPhonemeCalculator calculator, long version) {
+    this.model = model;
+    this.calculator = calculator;
+    this.version = version;
+    this.publishedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * @return Returns the compiled network of this snapshot
+   */
+  public CompiledModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return Returns the calculator decoding with this snapshot's network
+   */
+  public GraphemeToPhonemeCalculator getCalculator() {
+    return calculator;
+  }
+
+  /**
+   * @return Returns the version of this snapshot, starting from 1 and
+   *         increasing with every snapshot published by its holder
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return Returns when this snapshot was created, in milliseconds since
+   *         the epoch
+   */
+  public long getPublishedAt() {
+    return publishedAt;
+  }
+}
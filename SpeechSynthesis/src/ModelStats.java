@@ -0,0 +1,85 @@
+/**
+ * The state of one model of a ModelRegistry at the time it was read.
+ */
+public final class ModelStats {
+
+  private final String name;
+  private final boolean loaded;
+  private final long footprint;
+  private final long loadNanos;
+  private final long loads;
+  private final long evictions;
+
+  /**
+   * Constructor for a ModelStats
+   * @param name the name the model is registered under
+   * @param loaded whether the model is currently loaded
+   * @param footprint the footprint of the calculator of the model when
+   *                  last loaded, in bytes
+   * @param loadNanos how long the model took to load when last loaded
+   * @param loads the number of times the model has been loaded
+   * @param evictions the number of times the model has been evicted
+   */
+  ModelStats(String name, boolean loaded, long footprint, long loadNanos,
+             long loads, long evictions) {
+    this.name = name;
+    this.loaded = loaded;
+    this.footprint = footprint;
+    this.loadNanos = loadNanos;
+    this.loads = loads;
+    this.evictions = evictions;
+  }
+
+  /**
+   * @return Returns the name the model is registered under
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Returns whether the model is currently loaded
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * @return Returns the footprint of the calculator of the model, as
+   *         configured when it was last loaded, in bytes, or 0 if it has
+   *         never been loaded
+   */
+  public long getFootprint() {
+    return footprint;
+  }
+
+  /**
+   * @return Returns how long the model took to load and compile when it
+   *         was last loaded, in milliseconds
+   */
+  public double getLoadMillis() {
+    return loadNanos / 1e6;
+  }
+
+  /**
+   * @return Returns the number of times the model has been loaded
+   */
+  public long getLoads() {
+    return loads;
+  }
+
+  /**
+   * @return Returns the number of times the model has been evicted
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public String toString() {
+    return name + (loaded ? " loaded" : " unloaded")
+            + " footprint: " + footprint
+            + " load (ms): " + getLoadMillis()
+            + " loads: " + loads
+            + " evictions: " + evictions;
+  }
+}
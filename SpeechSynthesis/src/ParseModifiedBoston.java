@@ -1,6 +1,14 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Parsing utilities for parsing a modified version of the Boston
@@ -12,16 +20,66 @@ public class ParseModifiedBoston {
   // graphemes = all graphemes and their frequency
   // phonemes = all phonemes and their frequency
   // transitions = Transitional matrix between phones
+  // trigrams = Phones following each pair of phones, from a node named by
+  //            TrigramModel.context() to each phone
+  // pronunciations = Counts of each pronunciation of each word, keyed by
+  //                  word then hyphen-separated phones, kept only while
+  //                  collectLexicon is set
   private Graph<String, Double> graphToPhones;
   private Map<String, Double> graphemes;
   public Map<String, Double> phonemes;
   public Graph<String, Double> transitions;
+  private Graph<String, Double> trigrams;
+  private Map<String, Map<String, double[]>> pronunciations;
+
+  // Mappings observed fewer times than this are dropped when normalizing,
+  // other than the most frequent mapping of each row.
+  private double minCount;
+
+  // Whether the words of parsed corpora are kept for compileLexicon.
+  private boolean collectLexicon;
+
+  // Bounds on the size of the chunks parseFileParallel splits a file into.
+  private static final long MIN_CHUNK_BYTES = 1 << 16;
+  private static final long MAX_CHUNK_BYTES = 1 << 24;
+
+  // The line after which parsing stops, as ASCII bytes.
+  private static final byte[] BREAK = "BREAK!".getBytes(StandardCharsets.US_ASCII);
 
   public ParseModifiedBoston() {
     this.graphToPhones = new Graph<>();
     this.graphemes = new HashMap<>();
     this.phonemes = new HashMap<>();
     this.transitions = new Graph<>();
+    this.trigrams = new Graph<>();
+    this.pronunciations = new HashMap<>();
+  }
+
+  /**
+   * Sets the number of times a grapheme-to-phone mapping or a transition
+   * must be observed in a parsed corpus to be kept, pruning one-off noise
+   * from the network. The most frequent mapping of each grapheme and each
+   * phone is always kept. Defaults to 0, which keeps every mapping.
+   * @param minCount the fewest observations of a kept mapping
+   * @modifies this
+   * @throws IllegalArgumentException if minCount is negative
+   */
+  public void setMinCount(double minCount) {
+    if (!(minCount >= 0)) {
+      throw new IllegalArgumentException();
+    }
+    this.minCount = minCount;
+  }
+
+  /**
+   * Sets whether the words of corpora parsed from now on are kept, with
+   * their pronunciations, for compileLexicon. Keeping them takes heap in
+   * proportion to the number of distinct words, so it is off by default.
+   * @param collectLexicon whether to keep parsed words
+   * @modifies this
+   */
+  public void setCollectLexicon(boolean collectLexicon) {
+    this.collectLexicon = collectLexicon;
   }
 
   /** Takes a stream in the format of a modded Boston corpus
@@ -30,39 +88,222 @@ public class ParseModifiedBoston {
    * @param fileReader the stream to be read
    */
   public void parseFile(BufferedReader fileReader) throws IOException {
+    CorpusCounts counts = new CorpusCounts(collectLexicon);
     String inputLine;
     while ((inputLine = fileReader.readLine()) != null && !inputLine.equals("BREAK!")) {
 
       // Files begin with a list of the phones found in the corpus.
       // Skip these lines by only parsing input with spaces in them.
       if (inputLine.contains(" ")) {
-        parseLine(inputLine);
+        parseLine(inputLine, counts);
       }
     }
 
+    addCounts(counts);
     normalize(this.graphToPhones);
     normalize(this.transitions);
+    normalize(this.trigrams);
   }
 
-  /** Takes a String in the format of a modded Boston corpus
+  /** Takes a UTF-8 file in the format of a modded Boston corpus
    *  and adds the grapheme-phoneme mappings to the current graph.
+   *  The file is split into line-aligned chunks, which each thread
+   *  takes in turn and counts into its own primitive accumulator. The
+   *  accumulators are merged once before normalizing, producing the
+   *  same network as parseFile.
+   * @param corpus the file to be read
+   * @param threads the number of threads to count with
+   * @throws IllegalArgumentException if threads is less than 1
+   */
+  public void parseFileParallel(Path corpus, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    CorpusCounts counts = new CorpusCounts(collectLexicon);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try (FileChannel channel = FileChannel.open(corpus, StandardOpenOption.READ)) {
+
+      // Lines from a "BREAK!" line on are ignored, just as parseFile stops
+      // reading there.
+      long limit = breakOffset(channel);
+      long chunkBytes = Math.max(MIN_CHUNK_BYTES,
+              Math.min(MAX_CHUNK_BYTES, limit / (4L * threads)));
+      List<Long> bounds = chunkBounds(channel, limit, chunkBytes);
+
+      // Each worker takes the next chunk until none are left, counting all
+      // of them into its own accumulator, so there are only ever as many
+      // sets of counts as threads.
+      AtomicInteger next = new AtomicInteger();
+      List<Future<SymbolCounts>> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        workers.add(pool.submit(() -> {
+          SymbolCounts res = new SymbolCounts(collectLexicon);
+          int i;
+          while ((i = next.getAndIncrement()) + 1 < bounds.size()) {
+            parseChunk(channel, bounds.get(i), bounds.get(i + 1), res);
+          }
+          return res;
+        }));
+      }
+      for (Future<SymbolCounts> worker : workers) {
+        worker.get().addTo(counts);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    addCounts(counts);
+    normalize(this.graphToPhones);
+    normalize(this.transitions);
+    normalize(this.trigrams);
+  }
+
+  // Splits the first limit bytes of a file into chunks of roughly
+  // chunkBytes bytes, each beginning at the start of a line. Returns the
+  // offsets bounding each chunk, beginning with 0 and ending with limit.
+  private static List<Long> chunkBounds(FileChannel channel, long limit,
+                                        long chunkBytes) throws IOException {
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    long pos = lineStartAfter(channel, chunkBytes);
+    while (pos < limit) {
+      bounds.add(pos);
+      pos = lineStartAfter(channel, pos + chunkBytes);
+    }
+    bounds.add(limit);
+    return bounds;
+  }
+
+  /** Finds the first "BREAK!" line of a file, with a single pass over
+   *  its bytes. As UTF-8 never encodes other characters with ASCII bytes,
+   *  the line is matched without decoding the file.
+   * @param channel the file to search
+   * @return Returns the offset of the first line reading "BREAK!", or the
+   *         size of the file if there is none
+   */
+  static long breakOffset(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    // How much of "BREAK!" the current line has matched, or -1 once it
+    // cannot be the break.
+    int matched = 0;
+    long lineStart = 0;
+    long pos = 0;
+    while (pos < size) {
+      buffer.clear();
+      int read = channel.read(buffer, pos);
+      if (read < 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n' || b == '\r') {
+          if (matched == BREAK.length) {
+            return lineStart;
+          }
+          matched = 0;
+          lineStart = pos + i + 1;
+        } else if (matched >= 0 && matched < BREAK.length && b == BREAK[matched]) {
+          matched++;
+        } else {
+          matched = -1;
+        }
+      }
+      pos += read;
+    }
+    return matched == BREAK.length ? lineStart : size;
+  }
+
+  /** Finds the first line of a file beginning at or after an offset.
+   * @param channel the file to search
+   * @param pos the offset to search from
+   * @return Returns the offset of the first line beginning at or after pos,
+   *         or the size of the file if there is none
+   */
+  static long lineStartAfter(FileChannel channel, long pos) throws IOException {
+    long size = channel.size();
+    if (pos <= 0) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 13);
+
+    // Advance pos to just past the next newline.
+    while (pos < size) {
+      buffer.clear();
+      int read = channel.read(buffer, pos - 1);
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return pos + i;
+        }
+      }
+      pos += read;
+    }
+    return size;
+  }
+
+  // Counts the mappings of the lines in [start, end) of a file.
+  private static void parseChunk(FileChannel channel, long start, long end,
+                                 CountSink counts) throws IOException {
+    CharBuffer chars = StandardCharsets.UTF_8.decode(
+            channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    int lineStart = 0;
+    int length = chars.length();
+    while (lineStart < length) {
+
+      // Lines end in "\n", "\r" or "\r\n", like BufferedReader.readLine().
+      int lineEnd = lineStart;
+      while (lineEnd < length && chars.get(lineEnd) != '\n' && chars.get(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      String inputLine = chars.subSequence(lineStart, lineEnd).toString();
+      if (inputLine.contains(" ")) {
+        parseLine(inputLine, counts);
+      }
+
+      if (lineEnd + 1 < length && chars.get(lineEnd) == '\r' && chars.get(lineEnd + 1) == '\n') {
+        lineEnd++;
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  /** Takes a String in the format of a modded Boston corpus
+   *  and counts its grapheme-phoneme mappings.
    * @param input the line to be parsed
+   * @param counts the counts to add the line's mappings to
    * Also maps to phones and their counts of phones, whereas
    * consecutive phones should map to each other:
    * x1x2x3x4 ---> x1 -> x2, x2 -> x3, and x3 -> x4 to achieve
-   * the HMM
+   * the HMM, along with x1x2 -> x3 and x2x3 -> x4 for the trigram model
   */
-  private void parseLine(String input) {
+  static void parseLine(String input, CountSink counts) {
     String[] wordAndPhones = input.split(" ", 2);
     String word = wordAndPhones[0];
     String[] phones = wordAndPhones[1].split(" ");
     String[] brokenWord = word.split("-");
     String prevPhone = null;
+    String prevPrevPhone = null;
 
     // Allows for empty mappings to be mapped (ex. silent 'e')
     boolean[] processed = new boolean[brokenWord.length];
     Arrays.fill(processed, false);
-    addPhoneToGraphs("");
+
+    // The first phone of each grapheme, as a decoder would pronounce it.
+    String[] pronounced = new String[brokenWord.length];
+    Arrays.fill(pronounced, "");
+    counts.addPhoneToGraphs("");
     for (int i = 0; i < phones.length - 1; i += 2) {
 
       // Expect lines in the form of
@@ -72,22 +313,29 @@ public class ParseModifiedBoston {
         break;
       }
 
-      addPhoneme(phone);
+      counts.addPhoneme(phone);
       int index = Integer.parseInt(phones[i + 1]);
       String currGrapheme = brokenWord[index].toLowerCase();
-      addPhoneToGraphs(phone);
-      addGrapheme(currGrapheme);
-      addMapping(currGrapheme, phone, graphToPhones);
+      counts.addPhoneToGraphs(phone);
+      counts.addGrapheme(currGrapheme);
+      counts.addEmission(currGrapheme, phone);
 
       // Adding mappings between successive phones.
       if (prevPhone != null) {
-        addMapping(prevPhone, phone, transitions);
+        counts.addTransition(prevPhone, phone);
+      }
+      if (prevPrevPhone != null) {
+        counts.addTrigram(prevPrevPhone, prevPhone, phone);
       }
 
-      // Update phone to continue the chaining
+      // Update phones to continue the chaining
+      prevPrevPhone = prevPhone;
       prevPhone = phone;
 
       // Update boolean array as to continue processing later
+      if (!processed[index]) {
+        pronounced[index] = phone;
+      }
       processed[index] = true;
     }
 
@@ -99,67 +347,81 @@ public class ParseModifiedBoston {
         String curr = brokenWord[i];
 
         // Since it was not processed, it must be added
-        graphToPhones.addNode(curr);
-        addMapping(curr, "", graphToPhones);
+        counts.addGraphemeNode(curr);
+        counts.addEmission(curr, "");
         if (i > 0) {
-          addPhoneToGraphs(curr);
-          addPhoneToGraphs(brokenWord[i - 1]);
-          addMapping(brokenWord[i - 1], curr, transitions);
+          counts.addPhoneToGraphs(curr);
+          counts.addPhoneToGraphs(brokenWord[i - 1]);
+          counts.addTransition(brokenWord[i - 1], curr);
         }
       }
     }
+    if (counts.collectsPronunciations()) {
+      counts.addPronunciation(word.toLowerCase(), String.join("-", pronounced));
+    }
   }
 
 
-  // Helper method for adding a mapping between src and dest
-  // by adding to it's count
-  private void addMapping(String src, String dest,
-                          Graph<String, Double> graph) {
-    double currentCount = 1;
-    if (graph.containsNode(src)) {
-      if (graph.getChildrenOf(src).contains(dest)) {
-        double oldCount = graph.getEdgeBetween(src, dest);
-        currentCount += oldCount;
-      }
+  // Adds parsed counts to the current graphs and frequencies.
+  private void addCounts(CorpusCounts counts) {
+    for (String node : counts.graphToPhonesNodes) {
+      graphToPhones.addNode(node);
     }
-
-    graph.addEdge(src, dest, currentCount);
-  }
-
-  // Adds the current phone to all necessary graphs.
-  private void addPhoneToGraphs(String curr_phone) {
-    if (!graphToPhones.containsNode(curr_phone)) {
-      graphToPhones.addNode(curr_phone);
+    for (String node : counts.transitionNodes) {
+      transitions.addNode(node);
     }
-
-    if (!transitions.containsNode(curr_phone)) {
-      transitions.addNode(curr_phone);
+    addMappings(counts.graphToPhonesCounts, graphToPhones);
+    addMappings(counts.transitionCounts, transitions);
+    for (Map.Entry<String, Map<String, double[]>> row : counts.trigramCounts.entrySet()) {
+      trigrams.addNode(row.getKey());
+      for (String dest : row.getValue().keySet()) {
+        trigrams.addNode(dest);
+      }
     }
-  }
-
-  // Adds grapheme to all necessary graphs
-  private void addGrapheme(String curr_word) {
-
-    if (!graphToPhones.containsNode(curr_word)) {
-      graphToPhones.addNode(curr_word);
+    addMappings(counts.trigramCounts, trigrams);
+    addFrequencies(counts.graphemeCounts, graphemes);
+    addFrequencies(counts.phonemeCounts, phonemes);
+    for (Map.Entry<String, Map<String, double[]>> word : counts.pronunciationCounts.entrySet()) {
+      Map<String, double[]> row = pronunciations.computeIfAbsent(word.getKey(), k -> new HashMap<>());
+      for (Map.Entry<String, double[]> e : word.getValue().entrySet()) {
+        row.computeIfAbsent(e.getKey(), k -> new double[1])[0] += e.getValue()[0];
+      }
     }
+  }
 
-    if (!graphemes.containsKey(curr_word)) {
-      graphemes.put(curr_word, 1.0);
-    } else {
-      double currWordCount = graphemes.get(curr_word);
-      graphemes.put(curr_word, 1.0 + currWordCount);
+  // Helper method for adding mappings between sources and destinations
+  // by adding to their counts
+  private void addMappings(Map<String, Map<String, double[]>> counts,
+                           Graph<String, Double> graph) {
+    for (String src : counts.keySet()) {
+      Map<String, double[]> row = counts.get(src);
+      double rowMax = 0.0;
+      for (double[] count : row.values()) {
+        rowMax = Math.max(rowMax, count[0]);
+      }
+      for (String dest : row.keySet()) {
+        double currentCount = row.get(dest)[0];
+        if (currentCount < minCount && currentCount < rowMax) {
+          continue;
+        }
+        if (graph.getChildrenOf(src).contains(dest)) {
+          double oldCount = graph.getEdgeBetween(src, dest);
+          currentCount += oldCount;
+        }
+        graph.addEdge(src, dest, currentCount);
+      }
     }
   }
 
-  // Updates phoneme count
-  private void addPhoneme(String phoneme) {
-
-    if (!phonemes.containsKey(phoneme)) {
-      phonemes.put(phoneme, 1.0);
-    } else {
-      double currWordCount = phonemes.get(phoneme);
-      phonemes.put(phoneme, 1.0 + currWordCount);
+  // Updates frequencies by adding to their counts
+  private void addFrequencies(Map<String, double[]> counts,
+                              Map<String, Double> frequencies) {
+    for (String key : counts.keySet()) {
+      double currentCount = counts.get(key)[0];
+      if (frequencies.containsKey(key)) {
+        currentCount += frequencies.get(key);
+      }
+      frequencies.put(key, currentCount);
     }
   }
 
@@ -220,4 +482,67 @@ public class ParseModifiedBoston {
   public Graph<String, Double> getTransitions() {
     return this.transitions;
   }
+
+  /**
+   * Getter method for the current second-order transitions.
+   * @return The phones following each pair of phones, from nodes named
+   *         by TrigramModel.context() to the phones that followed them.
+   */
+  public Graph<String, Double> getTrigrams() {
+    return this.trigrams;
+  }
+
+  /**
+   * Compiles the current network into interned integer IDs and
+   * primitive probability tables for decoding.
+   * @return The compiled grapheme-phoneme and phoneme-phoneme mappings.
+   */
+  public CompiledModel compile() {
+    return CompiledModel.compile(graphToPhones, transitions, graphemes, getNormalizedPhones());
+  }
+
+  /**
+   * Compiles the current second-order transitions into sparse context
+   * tables, backing off to the transitions of a compiled model.
+   * @param model the model compiled from this network by compile()
+   * @return The compiled trigram model, with the default trigram weight
+   */
+  public TrigramModel compileTrigrams(CompiledModel model) {
+    return TrigramModel.compile(trigrams, model, TrigramModel.DEFAULT_WEIGHT);
+  }
+
+  /**
+   * Compiles every word kept since setCollectLexicon(true) into a lexicon
+   * of exact pronunciations, to be looked up before decoding. A word
+   * parsed with several pronunciations keeps its most frequent, the first
+   * in sorted order breaking ties. The kept words are then discarded, so a
+   * later call compiles only the words parsed after this one.
+   * @return The words of the parsed corpora, lower-cased, with the first
+   *         phone aligned to each of their graphemes
+   * @throws IllegalStateException if words are not being kept
+   * @modifies this
+   */
+  public Lexicon compileLexicon() {
+    if (!collectLexicon) {
+      throw new IllegalStateException("Call setCollectLexicon(true) before parsing");
+    }
+    List<String> words = new ArrayList<>(pronunciations.keySet());
+    Collections.sort(words);
+    List<String> phones = new ArrayList<>(words.size());
+    for (String word : words) {
+      String best = null;
+      double bestCount = 0.0;
+      for (Map.Entry<String, double[]> e : pronunciations.get(word).entrySet()) {
+        double count = e.getValue()[0];
+        if (best == null || count > bestCount
+                || (count == bestCount && e.getKey().compareTo(best) < 0)) {
+          best = e.getKey();
+          bestCount = count;
+        }
+      }
+      phones.add(best);
+    }
+    this.pronunciations = new HashMap<>();
+    return Lexicon.compile(words, phones);
+  }
 }
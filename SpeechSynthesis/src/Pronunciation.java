@@ -0,0 +1,56 @@
+/**
+ * A decoded sequence of phones along with the graphemes it was decoded
+ * from and its probability.
+ */
+public class Pronunciation {
+
+  private final String graphemes;
+  private final String phones;
+  private final double logProbability;
+
+  /**
+   * Constructor for a Pronunciation
+   * @param graphemes the graphemes decoded, separated by hyphens
+   * @param phones the phones, separated by hyphens
+   * @param logProbability the natural log of the probability of phones
+   */
+  public Pronunciation(String graphemes, String phones, double logProbability) {
+    this.graphemes = graphemes;
+    this.phones = phones;
+    this.logProbability = logProbability;
+  }
+
+  /**
+   * @return Returns the graphemes this pronunciation was decoded from,
+   *         separated by hyphens
+   */
+  public String getGraphemes() {
+    return graphemes;
+  }
+
+  /**
+   * @return Returns the phones of this pronunciation, separated by hyphens
+   */
+  public String getPhones() {
+    return phones;
+  }
+
+  /**
+   * @return Returns the probability of this pronunciation. Probabilities of
+   *         very long words may underflow to 0, see getLogProbability().
+   */
+  public double getProbability() {
+    return Math.exp(logProbability);
+  }
+
+  /**
+   * @return Returns the natural log of the probability of this pronunciation
+   */
+  public double getLogProbability() {
+    return logProbability;
+  }
+
+  public String toString() {
+    return phones + " (" + getProbability() + ")";
+  }
+}
@@ -0,0 +1,166 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A concurrent, size-bounded cache of pronunciations keyed by the
+ * hyphen-segmented graphemes they were decoded from.
+ * <p>
+ *
+ * The cache is split into segments, each an access-ordered map guarded by
+ * its own lock, and evicts the least recently used entry of a segment once
+ * the segment is full. Hits, misses and evictions are counted so the hit
+ * rate of a workload can be observed.
+ * <p>
+ *
+ * invalidate() discards every entry. Pronunciations still being decoded
+ * when the cache is invalidated are not stored, so as long as the decoder
+ * is swapped out before invalidating, entries of the old model can never
+ * resurface.
+ */
+public class PronunciationCache {
+
+  private static final int MAX_SEGMENTS = 16;
+
+  // Stands in for a null pronunciation so that failures are cached as well.
+  private static final String NO_PRONUNCIATION = new String();
+
+  private final Segment[] segments;
+  private final AtomicLong generation = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructor for a PronunciationCache
+   * @param maximumSize the maximum number of pronunciations held
+   * @throws IllegalArgumentException if maximumSize is less than 1
+   */
+  public PronunciationCache(int maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException();
+    }
+    int count = Math.min(MAX_SEGMENTS, maximumSize);
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      // Spread the remainder so that the capacities sum to maximumSize.
+      segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Returns the pronunciation of the given graphemes, decoding and caching
+   * it if it is not already cached.
+   * @param graphemes the hyphen-segmented graphemes to look up
+   * @param decoder calculates the pronunciation on a miss, may return null
+   * @return Returns the cached or newly decoded pronunciation
+   */
+  public String get(String graphemes, Function<String, String> decoder) {
+    Segment segment = segmentFor(graphemes);
+    String res;
+    synchronized (segment) {
+      res = segment.get(graphemes);
+    }
+    if (res != null) {
+      hits.increment();
+      return res == NO_PRONUNCIATION ? null : res;
+    }
+
+    misses.increment();
+    long expected = generation.get();
+    res = decoder.apply(graphemes);
+    synchronized (segment) {
+      if (generation.get() == expected) {
+        segment.put(graphemes, res == null ? NO_PRONUNCIATION : res);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Discards every cached pronunciation, e.g. after the model has been
+   * retrained. Counters are kept.
+   * @modifies this
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * @return Returns the number of pronunciations currently cached
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return Returns the number of lookups answered from the cache
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return Returns the number of lookups that had to be decoded
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return Returns the number of pronunciations evicted to make room
+   *         for newer ones
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return Returns the fraction of lookups answered from the cache,
+   *         or 0 if there have been no lookups
+   */
+  public double getHitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+  private Segment segmentFor(String graphemes) {
+    int h = graphemes.hashCode();
+    h ^= (h >>> 16);
+    return segments[(h & Integer.MAX_VALUE) % segments.length];
+  }
+
+  // A least recently used map of bounded size.
+  private class Segment extends LinkedHashMap<String, String> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    private Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      if (size() > capacity) {
+        evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  }
+}
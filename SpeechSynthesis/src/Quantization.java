@@ -0,0 +1,18 @@
+/**
+ * How the probabilities of a compacted model are stored.
+ * See ModelCompactor.
+ */
+public enum Quantization {
+
+  /** Full double precision, with log probabilities kept alongside. */
+  NONE,
+
+  /** Single precision floats. */
+  FLOAT,
+
+  /** 16-bit codes of evenly spaced log probability buckets. */
+  LOG16,
+
+  /** 8-bit codes of evenly spaced log probability buckets. */
+  LOG8
+}
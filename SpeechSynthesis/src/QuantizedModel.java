@@ -0,0 +1,225 @@
+/**
+ * A CompiledModel whose emission, initial and transition probabilities are
+ * stored at reduced precision, as chosen by a Quantization.
+ * <p>
+ *
+ * Log bucket codes divide the range between the smallest log probability
+ * of a table and 0 into evenly spaced buckets, so the error of a stored
+ * log probability is at most half a bucket wherever it lies. The largest
+ * code stands for a probability of 0. Log probabilities are decoded with a
+ * single multiplication. Probabilities are decoded without Math.exp as the
+ * product of one factor per 4-bit digit of their code, read from 16 entries
+ * per digit, so a table adds 256 bytes of factors to its codes at 8 bits
+ * and 512 bytes at 16 bits.
+ */
+class QuantizedModel extends CompiledModel {
+
+  // Quantization.NONE models are ArrayModels instead.
+
+  private final double[] graphemePriors;
+  private final double[] phonePriors;
+  private final int[] emissionOffsets;
+  private final int[] emissionPhones;
+  private final WeightTable emissionProbs;
+  private final WeightTable initialProbs;
+  private final int[] transitionOffsets;
+  private final int[] transitionTargets;
+  private final WeightTable transitionProbs;
+
+  QuantizedModel(SymbolTable graphemes, SymbolTable phones,
+                 double[] graphemePriors, double[] phonePriors,
+                 int[] emissionOffsets, int[] emissionPhones,
+                 double[] emissionProbs, double[] initialProbs,
+                 int[] transitionOffsets, int[] transitionTargets,
+                 double[] transitionProbs, Quantization quantization) {
+    super(graphemes, phones);
+    this.graphemePriors = graphemePriors;
+    this.phonePriors = phonePriors;
+    this.emissionOffsets = emissionOffsets;
+    this.emissionPhones = emissionPhones;
+    this.emissionProbs = WeightTable.of(emissionProbs, quantization);
+    this.initialProbs = WeightTable.of(initialProbs, quantization);
+    this.transitionOffsets = transitionOffsets;
+    this.transitionTargets = transitionTargets;
+    this.transitionProbs = WeightTable.of(transitionProbs, quantization);
+  }
+
+  protected long tableFootprint() {
+    return 8L * (graphemePriors.length + phonePriors.length)
+            + 4L * (emissionOffsets.length + emissionPhones.length)
+            + 4L * (transitionOffsets.length + transitionTargets.length)
+            + emissionProbs.footprint() + initialProbs.footprint()
+            + transitionProbs.footprint();
+  }
+
+  public double graphemePrior(int g) {
+    return graphemePriors[g];
+  }
+
+  public double phonePrior(int p) {
+    return phonePriors[p];
+  }
+
+  public int emissionStart(int g) {
+    return emissionOffsets[g];
+  }
+
+  public int emissionPhone(int k) {
+    return emissionPhones[k];
+  }
+
+  public double emissionProb(int k) {
+    return emissionProbs.prob(k);
+  }
+
+  public double initialProb(int k) {
+    return initialProbs.prob(k);
+  }
+
+  public double emissionLogProb(int k) {
+    return emissionProbs.logProb(k);
+  }
+
+  public double initialLogProb(int k) {
+    return initialProbs.logProb(k);
+  }
+
+  public int transitionStart(int a) {
+    return transitionOffsets[a];
+  }
+
+  public int transitionTarget(int k) {
+    return transitionTargets[k];
+  }
+
+  public double transitionProbAt(int k) {
+    return transitionProbs.prob(k);
+  }
+
+  public double transitionLogProbAt(int k) {
+    return transitionProbs.logProb(k);
+  }
+
+  // A table of probabilities stored at some precision.
+  private abstract static class WeightTable {
+
+    static WeightTable of(double[] probs, Quantization quantization) {
+      switch (quantization) {
+        case FLOAT:
+          return new FloatTable(probs);
+        case LOG16:
+          return new LogBucketTable(probs, 16);
+        case LOG8:
+          return new LogBucketTable(probs, 8);
+        default:
+          throw new IllegalArgumentException();
+      }
+    }
+
+    abstract double prob(int k);
+
+    abstract double logProb(int k);
+
+    abstract long footprint();
+  }
+
+  private static class FloatTable extends WeightTable {
+    private final float[] probs;
+    private final float[] logProbs;
+
+    FloatTable(double[] probs) {
+      this.probs = new float[probs.length];
+      this.logProbs = new float[probs.length];
+      for (int k = 0; k < probs.length; k++) {
+        this.probs[k] = (float) probs[k];
+        this.logProbs[k] = (float) Math.log(probs[k]);
+      }
+    }
+
+    double prob(int k) {
+      return probs[k];
+    }
+
+    double logProb(int k) {
+      return logProbs[k];
+    }
+
+    long footprint() {
+      return 8L * probs.length;
+    }
+  }
+
+  private static class LogBucketTable extends WeightTable {
+
+    // Codes of 8-bit tables are held in bytes, of 16-bit tables in chars,
+    // both read as unsigned.
+    private final byte[] bytes;
+    private final char[] chars;
+    private final int zero;
+    private final double step;
+
+    // exp(value * 16^digit * step) at 16 * digit + value, for each 4-bit
+    // digit of a code.
+    private final double[] digitProbs;
+
+    LogBucketTable(double[] probs, int bits) {
+      this.zero = (1 << bits) - 1;
+      double min = 0.0;
+      for (double prob : probs) {
+        if (prob > 0) {
+          min = Math.min(min, Math.log(prob));
+        }
+      }
+      this.step = zero > 1 ? min / (zero - 1) : 0.0;
+
+      this.bytes = bits == 8 ? new byte[probs.length] : null;
+      this.chars = bits == 8 ? null : new char[probs.length];
+      for (int k = 0; k < probs.length; k++) {
+        int code = zero;
+        if (probs[k] > 0) {
+          code = step == 0 ? 0 : (int) Math.min(zero - 1, Math.round(Math.log(probs[k]) / step));
+        }
+        if (bytes != null) {
+          bytes[k] = (byte) code;
+        } else {
+          chars[k] = (char) code;
+        }
+      }
+
+      this.digitProbs = new double[4 * bits];
+      for (int digit = 0; digit < bits / 4; digit++) {
+        for (int value = 0; value < 16; value++) {
+          digitProbs[16 * digit + value] = Math.exp((value << (4 * digit)) * step);
+        }
+      }
+    }
+
+    private int code(int k) {
+      return bytes != null ? bytes[k] & 0xff : chars[k];
+    }
+
+    private double decode(int code) {
+      return code == zero ? Double.NEGATIVE_INFINITY : code * step;
+    }
+
+    double prob(int k) {
+      int code = code(k);
+      if (code == zero) {
+        return 0.0;
+      }
+      double res = digitProbs[code & 0xf] * digitProbs[16 + (code >>> 4 & 0xf)];
+      if (chars != null) {
+        res *= digitProbs[32 + (code >>> 8 & 0xf)] * digitProbs[48 + (code >>> 12)];
+      }
+      return res;
+    }
+
+    double logProb(int k) {
+      return decode(code(k));
+    }
+
+    long footprint() {
+      return (bytes != null ? bytes.length : 2L * chars.length) + 8L * digitProbs.length;
+    }
+  }
+}
@@ -0,0 +1,13 @@
+/**
+ * The arithmetic a decoder scores its paths with.
+ */
+public enum ScoringMode {
+
+  // Multiplies raw probabilities. Products over long words may underflow
+  // to zero, at which point the path is discarded.
+  PROBABILITY,
+
+  // Adds log probabilities, which stays numerically stable regardless
+  // of the length of the word.
+  LOG
+}
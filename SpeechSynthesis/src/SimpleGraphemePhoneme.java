@@ -1,9 +1,14 @@
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Serves as a baseline for the Grapheme-to-Phoneme Calculator.
  * Maps grahemes to their most proabable phonemes.
+ * <p>
+ *
+ * The network is compiled into an immutable CompiledModel on construction,
+ * and the most probable phone of each grapheme is tabulated in an
+ * ArgmaxTable, after which the mapper may be used from any number of
+ * threads at once.
  */
 public class SimpleGraphemePhoneme {
 
@@ -11,6 +16,9 @@ public class SimpleGraphemePhoneme {
   private Graph<String, Double> transitions;
   private Map<String, Double> graphemes;
   private Map<String, Double> phonemes;
+  private CompiledModel model;
+  private ArgmaxTable argmax;
+  private volatile DecoderMetrics metrics;
 
   /**
    * Constructor for a SimpleGraphemePhoneme
@@ -28,43 +36,76 @@ public class SimpleGraphemePhoneme {
     this.graphemes = g;
     this.transitions = t;
     this.phonemes = p;
+    this.model = CompiledModel.compile(gToP, t, g, p);
+    this.argmax = new ArgmaxTable(model);
+  }
+
+  /**
+   * Constructor for a SimpleGraphemePhoneme over an already compiled network
+   * @param model the compiled grapheme-to-phoneme network
+   */
+  public SimpleGraphemePhoneme(CompiledModel model) {
+    this.model = model;
+    this.argmax = new ArgmaxTable(model);
   }
 
   /**
    * Takes a sequence of graphemes (string of graphs separated by
-   * hyphens) and maps each graph to its most probable phoneme.
+   * hyphens) and maps each graph to its most probable phoneme. Of phonemes
+   * equally probable for a graph, the one with the lowest ID in the
+   * compiled model wins, which being assigned in sorted order is the first
+   * of them alphabetically.
    * @param input The sequence of graphemes to convert
    * @return
    */
   public String getSimpleMapping(String input) {
+    DecoderMetrics m = metrics;
+    if (m == null) {
+      return map(input);
+    }
+    long start = System.nanoTime();
+    String res = map(input);
+    m.recordCall(System.nanoTime() - start, res == null);
+    return res;
+  }
+
+  /**
+   * Attaches metrics that every later call to getSimpleMapping is recorded
+   * to. Passing null detaches them, which is the default.
+   * @param metrics the metrics to record to, or null
+   * @modifies this
+   */
+  public void setMetrics(DecoderMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return Returns the metrics calls are recorded to, or null if none are
+   *         attached
+   */
+  public DecoderMetrics getMetrics() {
+    return metrics;
+  }
+
+  // Maps each grapheme of input to its most probable phone.
+  private String map(String input) {
     String[] obs = input.split("-");
-    String res = "";
+    StringBuilder res = new StringBuilder(obs.length * 4);
     for (int i = 0; i < obs.length; i++) {
-      String curr_obs = obs[i];
-      Set<String> desc_obs = graphToPhones.getChildrenOf(curr_obs);
-      if (desc_obs == null) {
+      int curr_obs = model.graphemes().id(obs[i]);
+      if (curr_obs < 0) {
         return null;
       }
-      String currMax = null;
-      double maxProb = 0.0;
-      for (String d : desc_obs) {
-        double currEdge = graphToPhones.getEdgeBetween(curr_obs, d);
-        if (currEdge > maxProb) {
-          maxProb = currEdge;
-          currMax = d;
-        }
-      }
-
-      if (currMax != null) {
-        if (res.length() == 0) {
-          res += currMax;
-        } else {
-          res += ("-" + currMax);
+      int currMax = argmax.phone(curr_obs);
+      if (currMax >= 0) {
+        if (res.length() > 0) {
+          res.append('-');
         }
+        res.append(model.phones().symbol(currMax));
       }
     }
 
-    return res;
+    return res.toString();
   }
 
 }
@@ -0,0 +1,276 @@
+import java.util.*;
+
+/**
+ * Accumulates the raw counts parsed from lines of a modded Boston corpus
+ * by one thread of a parallel parse.
+ * <p>
+ *
+ * Every grapheme and phone is interned once as a dense ID, after which
+ * its frequency is a slot of a long array and each mapping between two
+ * symbols a slot of an open-addressed table keyed by the pair of IDs
+ * packed into a long, so counting an occurrence allocates nothing. The
+ * pair of phones a trigram follows is interned as a context in the same
+ * way. Each thread counts every chunk it parses into one instance, and
+ * the instances are merged once into a CorpusCounts when every chunk is
+ * done.
+ * <p>
+ *
+ * An instance may be used by one thread at a time.
+ */
+class SymbolCounts implements CountSink {
+
+  private static final byte GRAPH_NODE = 1;
+  private static final byte TRANSITION_NODE = 2;
+
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> symbols = new ArrayList<>();
+
+  // Per symbol, the graphs it is a node of and its frequencies.
+  private byte[] nodes = new byte[64];
+  private long[] graphemeCounts = new long[64];
+  private long[] phonemeCounts = new long[64];
+
+  private final PairCounts emissions = new PairCounts();
+  private final PairCounts transitions = new PairCounts();
+
+  // Interned pairs of phones, as context index + 1, and the counts of
+  // each phone following each context.
+  private final PairCounts contextIds = new PairCounts();
+  private long[] contexts = new long[64];
+  private int contextCount;
+  private final PairCounts trigrams = new PairCounts();
+
+  // Words and their pronunciations, interned apart from the symbols, and
+  // the counts of each pronunciation of each word. Null unless collecting.
+  private final Map<String, Integer> wordIds;
+  private final List<String> words;
+  private final Map<String, Integer> pronunciationIds;
+  private final List<String> pronunciations;
+  private final PairCounts pronunciationCounts;
+
+  /**
+   * Constructor for a SymbolCounts
+   * @param collectPronunciations whether to count the pronunciations of
+   *                              words for a lexicon
+   */
+  SymbolCounts(boolean collectPronunciations) {
+    if (collectPronunciations) {
+      this.wordIds = new HashMap<>();
+      this.words = new ArrayList<>();
+      this.pronunciationIds = new HashMap<>();
+      this.pronunciations = new ArrayList<>();
+      this.pronunciationCounts = new PairCounts();
+    } else {
+      this.wordIds = null;
+      this.words = null;
+      this.pronunciationIds = null;
+      this.pronunciations = null;
+      this.pronunciationCounts = null;
+    }
+  }
+
+  // Returns the ID of a symbol, interning it if it is new. The arrays
+  // indexed by ID may be replaced, so callers must read them afterwards.
+  private int id(String symbol) {
+    Integer id = ids.get(symbol);
+    if (id != null) {
+      return id;
+    }
+    int res = symbols.size();
+    ids.put(symbol, res);
+    symbols.add(symbol);
+    if (res == nodes.length) {
+      nodes = Arrays.copyOf(nodes, 2 * res);
+      graphemeCounts = Arrays.copyOf(graphemeCounts, 2 * res);
+      phonemeCounts = Arrays.copyOf(phonemeCounts, 2 * res);
+    }
+    return res;
+  }
+
+  private static int id(String value, Map<String, Integer> ids, List<String> values) {
+    Integer id = ids.get(value);
+    if (id != null) {
+      return id;
+    }
+    ids.put(value, values.size());
+    values.add(value);
+    return values.size() - 1;
+  }
+
+  private static long pack(int a, int b) {
+    return ((long) a << 32) | (b & 0xffffffffL);
+  }
+
+  public void addPhoneToGraphs(String phone) {
+    int id = id(phone);
+    nodes[id] |= GRAPH_NODE | TRANSITION_NODE;
+  }
+
+  public void addGraphemeNode(String grapheme) {
+    int id = id(grapheme);
+    nodes[id] |= GRAPH_NODE;
+  }
+
+  public void addGrapheme(String grapheme) {
+    int id = id(grapheme);
+    nodes[id] |= GRAPH_NODE;
+    graphemeCounts[id]++;
+  }
+
+  public void addPhoneme(String phone) {
+    int id = id(phone);
+    phonemeCounts[id]++;
+  }
+
+  public void addEmission(String src, String dest) {
+    emissions.add(pack(id(src), id(dest)), 1);
+  }
+
+  public void addTransition(String src, String dest) {
+    transitions.add(pack(id(src), id(dest)), 1);
+  }
+
+  public void addTrigram(String first, String second, String dest) {
+    long pair = pack(id(first), id(second));
+    int context = (int) contextIds.get(pair) - 1;
+    if (context < 0) {
+      context = contextCount++;
+      if (context == contexts.length) {
+        contexts = Arrays.copyOf(contexts, 2 * context);
+      }
+      contexts[context] = pair;
+      contextIds.add(pair, context + 1);
+    }
+    trigrams.add(pack(context, id(dest)), 1);
+  }
+
+  public void addPronunciation(String word, String phones) {
+    if (pronunciationCounts != null) {
+      pronunciationCounts.add(pack(id(word, wordIds, words),
+              id(phones, pronunciationIds, pronunciations)), 1);
+    }
+  }
+
+  public boolean collectsPronunciations() {
+    return pronunciationCounts != null;
+  }
+
+  /**
+   * Adds every count of this to a CorpusCounts.
+   * @param into the counts to add to
+   * @modifies into
+   */
+  void addTo(CorpusCounts into) {
+    for (int id = 0; id < symbols.size(); id++) {
+      String symbol = symbols.get(id);
+      if ((nodes[id] & GRAPH_NODE) != 0) {
+        into.graphToPhonesNodes.add(symbol);
+      }
+      if ((nodes[id] & TRANSITION_NODE) != 0) {
+        into.transitionNodes.add(symbol);
+      }
+      if (graphemeCounts[id] > 0) {
+        CorpusCounts.increment(into.graphemeCounts, symbol, graphemeCounts[id]);
+      }
+      if (phonemeCounts[id] > 0) {
+        CorpusCounts.increment(into.phonemeCounts, symbol, phonemeCounts[id]);
+      }
+    }
+    addPairs(emissions, into.graphToPhonesCounts);
+    addPairs(transitions, into.transitionCounts);
+    for (int slot = 0; slot < trigrams.keys.length; slot++) {
+      long count = trigrams.counts[slot];
+      if (count > 0) {
+        long key = trigrams.keys[slot];
+        long pair = contexts[(int) (key >>> 32)];
+        String context = TrigramModel.context(symbols.get((int) (pair >>> 32)),
+                symbols.get((int) pair));
+        CorpusCounts.increment(into.trigramCounts, context, symbols.get((int) key), count);
+      }
+    }
+    if (pronunciationCounts != null && into.collectPronunciations) {
+      for (int slot = 0; slot < pronunciationCounts.keys.length; slot++) {
+        long count = pronunciationCounts.counts[slot];
+        if (count > 0) {
+          long key = pronunciationCounts.keys[slot];
+          CorpusCounts.increment(into.pronunciationCounts, words.get((int) (key >>> 32)),
+                  pronunciations.get((int) key), count);
+        }
+      }
+    }
+  }
+
+  // Adds the counts of a table of symbol pairs to counts keyed by symbol.
+  private void addPairs(PairCounts pairs, Map<String, Map<String, double[]>> into) {
+    for (int slot = 0; slot < pairs.keys.length; slot++) {
+      long count = pairs.counts[slot];
+      if (count > 0) {
+        long key = pairs.keys[slot];
+        CorpusCounts.increment(into, symbols.get((int) (key >>> 32)),
+                symbols.get((int) key), count);
+      }
+    }
+  }
+
+  // An open-addressed table of positive counts keyed by packed pairs of
+  // IDs, where a count of 0 marks an empty slot.
+  private static class PairCounts {
+    private long[] keys = new long[64];
+    private long[] counts = new long[64];
+    private int size;
+
+    // Returns the count of key, or 0 if it has none.
+    private long get(long key) {
+      int mask = keys.length - 1;
+      int slot = slot(key, mask);
+      while (counts[slot] != 0) {
+        if (keys[slot] == key) {
+          return counts[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return 0;
+    }
+
+    // Adds a positive amount to the count of key.
+    private void add(long key, long amount) {
+      int mask = keys.length - 1;
+      int slot = slot(key, mask);
+      while (counts[slot] != 0) {
+        if (keys[slot] == key) {
+          counts[slot] += amount;
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      counts[slot] = amount;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      long[] oldCounts = counts;
+      keys = new long[2 * oldKeys.length];
+      counts = new long[2 * oldKeys.length];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldCounts[i] != 0) {
+          int slot = slot(oldKeys[i], mask);
+          while (counts[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+
+    private static int slot(long key, int mask) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+  }
+}
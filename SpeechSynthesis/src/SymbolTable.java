@@ -0,0 +1,80 @@
+import java.util.*;
+
+/**
+ * SymbolTable interns a fixed set of strings as dense integer IDs.
+ * <p>
+ *
+ * IDs are assigned in the order the symbols are given, starting at zero,
+ * so they may be used directly as indices into primitive arrays. Symbol
+ * tables are immutable and may be shared between threads.
+ * <p>
+ *
+ * Subclasses decide where the symbols live: of() keeps them in heap
+ * arrays, while ModelFile keeps the symbols of off-heap models in direct
+ * buffers.
+ */
+public abstract class SymbolTable {
+
+  /**
+   * Interns symbols in a table held on the heap.
+   * @param values the symbols to intern, in the order their IDs are assigned
+   * @return Returns the symbol table
+   * @throws IllegalArgumentException if a symbol is null or repeated
+   */
+  public static SymbolTable of(Collection<String> values) {
+    return new ArraySymbolTable(values);
+  }
+
+  /**
+   * Returns the ID of a symbol
+   * @param symbol The symbol of inquiry
+   * @return Returns the ID of symbol, or -1 if it is not in the table
+   */
+  public int id(String symbol) {
+    return id(symbol, 0, symbol.length());
+  }
+
+  /**
+   * Returns the ID of a symbol given as a range of characters, without
+   * creating a String for it
+   * @param chars The characters holding the symbol of inquiry
+   * @param start The index of the first character of the symbol
+   * @param end The index one past the last character of the symbol
+   * @requires 0 <= start <= end <= chars.length()
+   * @return Returns the ID of the symbol, or -1 if it is not in the table
+   */
+  public abstract int id(CharSequence chars, int start, int end);
+
+  /**
+   * Returns the symbol with the given ID
+   * @param id The ID of inquiry
+   * @requires 0 <= id < size()
+   * @return Returns the symbol interned as id
+   */
+  public abstract String symbol(int id);
+
+  /**
+   * @return Returns the approximate number of bytes held by the table,
+   *         wherever they are held
+   */
+  public abstract long getFootprint();
+
+  /**
+   * @return Returns the number of symbols in the table
+   */
+  public abstract int size();
+
+  // Hashes the characters [start, end) of chars as String.hashCode() would.
+  static int hash(CharSequence chars, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + chars.charAt(i);
+    }
+    return h;
+  }
+
+  // Mixes the high bits of a hash code into the low bits used for slots.
+  static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The greedy first tier of a two-tier decoding policy.
+ * <p>
+ *
+ * Most words are pronounced the way each of their graphemes most often is,
+ * and for those a full Viterbi search only confirms the greedy answer. A
+ * TieredDecoder reads the most probable phone of each grapheme from an
+ * ArgmaxTable, and accepts the greedy pronunciation only if every grapheme
+ * is known and wins by a margin greater than a threshold. Otherwise the
+ * word is escalated to the second tier, a Viterbi search run by the caller,
+ * as GraphemeToPhonemeCalculator does once setGreedyMargin is called.
+ * <p>
+ *
+ * The number of words handled by each tier is counted. Decoders hold no
+ * per-call state and may be shared between threads.
+ */
+public class TieredDecoder {
+
+  private final ArgmaxTable argmax;
+  private final double minMargin;
+
+  private final LongAdder greedy = new LongAdder();
+  private final LongAdder escalated = new LongAdder();
+
+  /**
+   * Constructor for a TieredDecoder
+   * @param argmax the most probable phones of the graphemes to decode
+   * @param minMargin the natural log margin every grapheme of a word must
+   *                  exceed for its greedy pronunciation to be accepted
+   * @throws IllegalArgumentException if minMargin is negative or NaN
+   */
+  public TieredDecoder(ArgmaxTable argmax, double minMargin) {
+    if (!(minMargin >= 0)) {
+      throw new IllegalArgumentException();
+    }
+    this.argmax = argmax;
+    this.minMargin = minMargin;
+  }
+
+  /**
+   * @return Returns the margin every grapheme of a word must exceed for
+   *         its greedy pronunciation to be accepted
+   */
+  public double getMinMargin() {
+    return minMargin;
+  }
+
+  /**
+   * @return Returns the approximate number of bytes occupied by the
+   *         argmax table of this decoder, excluding its model
+   */
+  public long getFootprint() {
+    return argmax.getFootprint();
+  }
+
+  /**
+   * Maps each of a sequence of hyphen-segmented graphemes to its most
+   * probable phone, if every mapping is confident enough, writing the phone
+   * IDs into a caller-supplied buffer. Graphemes are split as by
+   * ViterbiDecoder.decode(CharSequence, DecoderState, int[]), whose phone
+   * IDs these are interchangeable with.
+   * @param graphemes The hyphen-segmented graphemes
+   * @param state the scratch space to decode in
+   * @param phones receives the phone ID of each grapheme
+   * @requires phones holds at least as many entries as there are graphemes
+   * @return Returns the number of phone IDs written, or -1 if the word must
+   *         be escalated to a Viterbi search
+   */
+  public int decode(CharSequence graphemes, DecoderState state, int[] phones) {
+    int n = state.split(graphemes, argmax.getModel().graphemes());
+    int[] obs = state.obs;
+    if (n == 0) {
+      escalated.increment();
+      return -1;
+    }
+    for (int i = 0; i < n; i++) {
+      if (obs[i] < 0 || !(argmax.margin(obs[i]) > minMargin)) {
+        escalated.increment();
+        return -1;
+      }
+      phones[i] = argmax.phone(obs[i]);
+    }
+    greedy.increment();
+    return n;
+  }
+
+  /**
+   * Joins the symbols of phone IDs with hyphens.
+   * @param phones the phone IDs, as written by decode
+   * @param count the number of phone IDs to join
+   * @return Returns the hyphen-separated phones
+   */
+  public String toPhones(int[] phones, int count) {
+    SymbolTable symbols = argmax.getModel().phones();
+    StringBuilder res = new StringBuilder(count * 4);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        res.append('-');
+      }
+      res.append(symbols.symbol(phones[i]));
+    }
+    return res.toString();
+  }
+
+  /**
+   * @return Returns the number of words whose greedy pronunciation was
+   *         accepted
+   */
+  public long getGreedyWords() {
+    return greedy.sum();
+  }
+
+  /**
+   * @return Returns the number of words escalated to a Viterbi search
+   */
+  public long getEscalatedWords() {
+    return escalated.sum();
+  }
+
+  /**
+   * Resets both tier counts to 0.
+   * @modifies this
+   */
+  public void reset() {
+    greedy.reset();
+    escalated.reset();
+  }
+}
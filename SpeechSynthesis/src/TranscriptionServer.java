@@ -0,0 +1,268 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Serves pronunciations over HTTP on the loopback interface, so that any
+ * number of local synthesis workers can share one loaded model.
+ * <p>
+ *
+ * Endpoints:
+ * <ul>
+ *   <li>GET /health answers "ok" once the model is loaded.</li>
+ *   <li>GET /transcribe?graphemes=a-b-ou-t answers the phones of one
+ *       hyphen-segmented word.</li>
+ *   <li>POST /transcribe takes one hyphen-segmented word per line and
+ *       answers one line of phones per word, in the same order. Words
+ *       that cannot be decoded answer an empty line.</li>
+ *   <li>POST /reload rebuilds the model from the source the server was
+ *       given, answering with the new model's version once it is being
+ *       served, or 202 if it is still loading after ten minutes. Requests
+ *       keep being answered by the old model meanwhile.</li>
+ * </ul>
+ * <p>
+ *
+ * Every exchange is handled on its own virtual thread where the runtime
+ * supports them, and on a pooled platform thread otherwise. Handlers block
+ * cheaply on a MicroBatcher, which coalesces the words of concurrent
+ * requests into batches for the calculator. Models are served through a
+ * ModelHolder, so each batch is decoded with one model, and a reload never
+ * pauses requests.
+ */
+public class TranscriptionServer {
+
+  private static final int MAX_BATCH = 256;
+  private static final long MAX_DELAY_MICROS = 200;
+
+  // How long POST /reload waits for the new model before answering that
+  // it is still loading.
+  private static final long RELOAD_TIMEOUT_SECONDS = 600;
+
+  private final ModelHolder models;
+  private final Callable<CompiledModel> source;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final MicroBatcher batcher;
+
+  /**
+   * Constructor for a TranscriptionServer, which is not started until
+   * start() is called
+   * @param calculator the calculator to answer requests with
+   * @param port the loopback port to listen on, or 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public TranscriptionServer(GraphemeToPhonemeCalculator calculator, int port)
+          throws IOException {
+    this(new ModelHolder(calculator), null, port);
+  }
+
+  /**
+   * Constructor for a TranscriptionServer answering requests with the
+   * current model of a holder, which is not started until start() is called
+   * @param models the holder of the model to answer requests with
+   * @param source builds the model to publish on POST /reload, or null to
+   *               not accept reloads
+   * @param port the loopback port to listen on, or 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public TranscriptionServer(ModelHolder models, Callable<CompiledModel> source, int port)
+          throws IOException {
+    this.models = models;
+    this.source = source;
+    this.server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor = newThreadPerTaskExecutor();
+    this.batcher = new MicroBatcher(models::calculatePhonemes, MAX_BATCH,
+                                    MAX_DELAY_MICROS, TimeUnit.MICROSECONDS);
+    server.setExecutor(executor);
+    server.createContext("/health", this::health);
+    server.createContext("/transcribe", this::transcribe);
+    server.createContext("/reload", this::reload);
+  }
+
+  /**
+   * Starts answering requests.
+   * @modifies this
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops answering requests, waiting up to a second for requests being
+   * answered to finish.
+   * @modifies this
+   */
+  public void stop() {
+    server.stop(1);
+    batcher.close();
+    executor.shutdown();
+  }
+
+  /**
+   * @return Returns the port the server is listening on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @return Returns the calculator currently answering requests
+   */
+  public GraphemeToPhonemeCalculator getCalculator() {
+    return models.get().getCalculator();
+  }
+
+  /**
+   * @return Returns the holder of the model answering requests
+   */
+  public ModelHolder getModels() {
+    return models;
+  }
+
+  private void health(HttpExchange exchange) throws IOException {
+    respond(exchange, 200, "ok\n");
+  }
+
+  private void reload(HttpExchange exchange) throws IOException {
+    if (!exchange.getRequestMethod().equals("POST")) {
+      respond(exchange, 405, "Method not allowed\n");
+      return;
+    }
+    if (source == null) {
+      respond(exchange, 404, "Reloading is not enabled\n");
+      return;
+    }
+    try {
+      ModelSnapshot snapshot = models.reload(source).get(RELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      respond(exchange, 200, "version " + snapshot.getVersion() + "\n");
+    } catch (TimeoutException e) {
+      respond(exchange, 202, "Reload still in progress\n");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 503, "Interrupted\n");
+    } catch (ExecutionException e) {
+      respond(exchange, 500, "Reloading failed: " + e.getCause() + "\n");
+    }
+  }
+
+  private void transcribe(HttpExchange exchange) throws IOException {
+    List<String> words = new ArrayList<>();
+    String method = exchange.getRequestMethod();
+    if (method.equals("GET")) {
+      String word = queryParameter(exchange, "graphemes");
+      if (word == null) {
+        respond(exchange, 400, "Missing graphemes parameter\n");
+        return;
+      }
+      words.add(word);
+    } else if (method.equals("POST")) {
+      BufferedReader body = new BufferedReader(new InputStreamReader(
+              exchange.getRequestBody(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = body.readLine()) != null) {
+        if (!line.isEmpty()) {
+          words.add(line.trim());
+        }
+      }
+    } else {
+      respond(exchange, 405, "Method not allowed\n");
+      return;
+    }
+
+    List<CompletableFuture<String>> results = new ArrayList<>(words.size());
+    for (String word : words) {
+      results.add(batcher.submit(word.toLowerCase()));
+    }
+    StringBuilder res = new StringBuilder();
+    try {
+      for (CompletableFuture<String> result : results) {
+        String phones = result.get();
+        res.append(phones == null ? "" : phones).append('\n');
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 503, "Interrupted\n");
+      return;
+    } catch (ExecutionException | CancellationException e) {
+      respond(exchange, 500, "Decoding failed\n");
+      return;
+    }
+    respond(exchange, 200, res.toString());
+  }
+
+  // Returns the decoded value of a query parameter, or null if absent.
+  private static String queryParameter(HttpExchange exchange, String name) {
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return null;
+    }
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0 && pair.substring(0, eq).equals(name)) {
+        return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body)
+          throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  // Returns an executor starting a virtual thread per task, falling back
+  // to cached platform threads on runtimes without virtual threads.
+  private static ExecutorService newThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Loads a model and serves it until the process is stopped. POST /reload
+   * loads the model again from the same source, e.g. after the corpus has
+   * been updated.
+   * @param args [port] [model_file]: the port defaults to 8080, and
+   *             without a model file the model is trained on the corpus
+   */
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    Callable<CompiledModel> source;
+    if (args.length > 1) {
+      Path modelFile = Paths.get(args[1]);
+      source = () -> ModelFile.map(modelFile);
+    } else {
+      source = () -> {
+        File file = new File("corpus_test.txt");
+        BufferedReader readFile = new BufferedReader(new FileReader(file));
+        ParseModifiedBoston pmb = new ParseModifiedBoston();
+        pmb.parseFile(readFile);
+        readFile.close();
+        return pmb.compile();
+      };
+    }
+
+    TranscriptionServer server = new TranscriptionServer(
+            new ModelHolder(source.call()), source, port);
+    server.start();
+    System.out.println("Serving pronunciations on http://localhost:"
+                       + server.getPort() + "/transcribe");
+  }
+}
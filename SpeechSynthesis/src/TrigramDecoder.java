@@ -0,0 +1,294 @@
+import java.util.*;
+
+/**
+ * Viterbi decoder for grapheme-to-phoneme translation under a TrigramModel,
+ * where each phone is conditioned on the two phones before it.
+ * <p>
+ *
+ * A second-order path cannot be extended knowing only its last phone, so
+ * each state is a pair of emissions of adjacent grapheme positions: column
+ * i holds one cell per pair (entry k of position i, entry j of position
+ * i - 1), with a backpointer to the entry of position i - 2 that the best
+ * path through the pair came from.
+ * <p>
+ *
+ * Filling a cell naively takes a maximum over every entry h of position
+ * i - 2. Instead, since a phone missing from a known context scores as a
+ * fixed fraction of its bigram probability, and an unknown context scores
+ * as the bigram, the decoder only keeps the best path into (j, h) over the
+ * known and the unknown contexts, and extends those two by the bigram
+ * transition to every entry k. The trigram rows of the known contexts,
+ * which are short, then raise the cells whose phones they contain. Only a
+ * hash lookup per pair of preceding entries and a binary search per phone
+ * of a known context are added to the work of the bigram decoder.
+ * <p>
+ *
+ * Paths are scored as sums of log probabilities and searched exhaustively.
+ * As with ViterbiDecoder, if no path covers every grapheme, the best path
+ * covering all but the last grapheme is returned instead.
+ * <p>
+ *
+ * Decoders hold no per-call state and may be shared between threads.
+ */
+public class TrigramDecoder {
+
+  private final CompiledModel model;
+  private final TrigramModel trigrams;
+
+  // Receives the work done per word, may be null.
+  private final DecoderMetrics metrics;
+
+  /**
+   * Constructor for a TrigramDecoder
+   * @param trigrams the trigram model to decode with, over the phones of
+   *                 the compiled network given by trigrams.getBigram()
+   */
+  public TrigramDecoder(TrigramModel trigrams) {
+    this(trigrams, null);
+  }
+
+  /**
+   * Constructor for a TrigramDecoder that reports the hypotheses it
+   * extends and the words it falls back on
+   * @param trigrams the trigram model to decode with
+   * @param metrics the metrics to record each decode to, or null
+   */
+  public TrigramDecoder(TrigramModel trigrams, DecoderMetrics metrics) {
+    this.model = trigrams.getBigram();
+    this.trigrams = trigrams;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return Returns the trigram model this decoder decodes with
+   */
+  public TrigramModel getTrigrams() {
+    return trigrams;
+  }
+
+  /**
+   * Finds the most probable sequence of phones for the given graphemes.
+   * If no path covers every grapheme, the most probable path covering
+   * all but the last grapheme is returned instead.
+   * @param obs The observed graphemes
+   * @return The phones of the best path separated by hyphens, or null if
+   *         no suitable path exists
+   */
+  public String decode(String[] obs) {
+    DecoderState state = DecoderState.current();
+    state.ensureWord(obs.length);
+    for (int i = 0; i < obs.length; i++) {
+      state.obs[i] = model.graphemes().id(obs[i]);
+    }
+    int[] phones = state.phones(obs.length);
+    int count = decode(state.obs, obs.length, state, phones);
+    return count < 0 ? null : toPhones(phones, count);
+  }
+
+  /**
+   * Finds the most probable sequence of phones for hyphen-segmented
+   * graphemes, as decode(String[]) does for grapheme.split("-"), writing
+   * the phone IDs of the best path into a caller-supplied buffer.
+   * @param graphemes The hyphen-segmented graphemes
+   * @param state the scratch space to decode in
+   * @param phones receives the phone IDs of the best path
+   * @requires phones holds at least as many entries as there are graphemes
+   * @return Returns the number of phone IDs written, which is one less than
+   *         the number of graphemes if the path omits the last grapheme, or
+   *         -1 if no suitable path exists
+   */
+  public int decode(CharSequence graphemes, DecoderState state, int[] phones) {
+    return decode(state.obs, state.split(graphemes, model.graphemes()), state, phones);
+  }
+
+  /**
+   * Finds the most probable sequence of phones for the given graphemes,
+   * writing the phone IDs of the best path into a caller-supplied buffer.
+   * Once the state has grown to fit the word, nothing is allocated.
+   * @param obs The IDs of the observed graphemes, -1 for unknown graphemes
+   * @param n The number of graphemes, taken from the start of obs
+   * @param state the scratch space to decode in
+   * @param phones receives the phone IDs of the best path
+   * @requires phones holds at least n entries, and obs is not one of the
+   *           arrays of state other than state.obs
+   * @return Returns the number of phone IDs written, which is n - 1 if the
+   *         path omits the last grapheme, or -1 if no suitable path exists
+   */
+  public int decode(int[] obs, int n, DecoderState state, int[] phones) {
+    if (obs != state.obs) {
+      state.ensureWord(n);
+    }
+
+    // Lay out one column of pair cells per known grapheme, up to the first
+    // unknown one. The first column pairs each entry with nothing.
+    int[] columnStarts = state.columnStarts;
+    int known = 0;
+    int width = 0;
+    int prevWidth = 1;
+    columnStarts[0] = 0;
+    while (known < n && obs[known] >= 0) {
+      int w = model.emissionEnd(obs[known]) - model.emissionStart(obs[known]);
+      columnStarts[known + 1] = columnStarts[known] + w * prevWidth;
+      width = Math.max(width, w);
+      prevWidth = w;
+      known++;
+    }
+    state.ensureCells(columnStarts[known], width);
+    double[] scores = state.scores;
+    int[] backpointers = state.backpointers;
+    int[] contexts = state.contexts;
+    double dead = Double.NEGATIVE_INFINITY;
+
+    // Index of the last column holding at least one live path.
+    int last = -1;
+    long expanded = 0;
+    for (int i = 0; i < known; i++) {
+      int start = model.emissionStart(obs[i]);
+      int w = model.emissionEnd(obs[i]) - start;
+      int column = columnStarts[i];
+      if (i == 0) {
+        for (int k = 0; k < w; k++) {
+          scores[column + k] = model.initialLogProb(start + k);
+          backpointers[column + k] = -1;
+        }
+        expanded += w;
+      } else {
+
+        // Cell (j, h) of the previous column is at prevColumn + j * q + h.
+        int prevStart = model.emissionStart(obs[i - 1]);
+        int p = model.emissionEnd(obs[i - 1]) - prevStart;
+        int prevColumn = columnStarts[i - 1];
+        int q = (column - prevColumn) / p;
+        int prevPrevStart = i > 1 ? model.emissionStart(obs[i - 2]) : 0;
+        for (int j = 0; j < p; j++) {
+          int b = model.emissionPhone(prevStart + j);
+
+          // The best paths into entry j through known and unknown contexts.
+          double seen = dead;
+          double unseen = dead;
+          int seenPrev = -1;
+          int unseenPrev = -1;
+          for (int h = 0; h < q; h++) {
+            double score = scores[prevColumn + j * q + h];
+            contexts[h] = -1;
+            if (score > dead) {
+              if (i > 1) {
+                contexts[h] = trigrams.context(model.emissionPhone(prevPrevStart + h), b);
+              }
+              if (contexts[h] >= 0 && score > seen) {
+                seen = score;
+                seenPrev = h;
+              } else if (contexts[h] < 0 && score > unseen) {
+                unseen = score;
+                unseenPrev = h;
+              }
+            }
+          }
+
+          // Back off to the bigram transitions from entry j.
+          double backoff = seen + trigrams.backoffLogWeight();
+          for (int k = 0; k < w; k++) {
+            double best = dead;
+            int bestPrev = -1;
+            if (seenPrev >= 0 || unseenPrev >= 0) {
+              expanded++;
+              double trans = model.transitionLogProb(b, model.emissionPhone(start + k));
+              if (unseenPrev >= 0 && unseen + trans > best) {
+                best = unseen + trans;
+                bestPrev = unseenPrev;
+              }
+              if (seenPrev >= 0 && backoff + trans > best) {
+                best = backoff + trans;
+                bestPrev = seenPrev;
+              }
+            }
+            scores[column + k * p + j] = best;
+            backpointers[column + k * p + j] = bestPrev;
+          }
+
+          // Raise the cells whose phones were seen after a known context.
+          if (seenPrev < 0) {
+            continue;
+          }
+          for (int h = 0; h < q; h++) {
+            int row = contexts[h];
+            if (row < 0) {
+              continue;
+            }
+            double score = scores[prevColumn + j * q + h];
+            for (int k = 0; k < w; k++) {
+              int t = trigrams.find(row, model.emissionPhone(start + k));
+              if (t >= 0) {
+                expanded++;
+                double prob = score + trigrams.logProbAt(t);
+                if (prob > scores[column + k * p + j]) {
+                  scores[column + k * p + j] = prob;
+                  backpointers[column + k * p + j] = h;
+                }
+              }
+            }
+          }
+        }
+      }
+
+      boolean alive = false;
+      for (int c = column; c < columnStarts[i + 1]; c++) {
+        alive |= scores[c] > dead;
+      }
+      if (!alive) {
+        break;
+      }
+      last = i;
+    }
+
+    // Paths which failed on the final grapheme fall back to the
+    // best path ending on the second to last grapheme.
+    if (metrics != null) {
+      metrics.recordDecode(expanded, last >= 0 && last == n - 2);
+    }
+    if (last < 0 || last < n - 2) {
+      return -1;
+    }
+
+    // Follow the backpointers from the best cell of column "last", each
+    // naming the entry two positions back.
+    int p = last > 0 ? model.emissionEnd(obs[last - 1]) - model.emissionStart(obs[last - 1]) : 1;
+    int best = -1;
+    double max_prob = dead;
+    for (int c = 0; c < columnStarts[last + 1] - columnStarts[last]; c++) {
+      if (scores[columnStarts[last] + c] > max_prob) {
+        max_prob = scores[columnStarts[last] + c];
+        best = c;
+      }
+    }
+    int k = best / p;
+    int j = best % p;
+    for (int i = last; i >= 0; i--) {
+      phones[i] = model.emissionPhone(model.emissionStart(obs[i]) + k);
+      if (i > 0) {
+        p = model.emissionEnd(obs[i - 1]) - model.emissionStart(obs[i - 1]);
+        int h = backpointers[columnStarts[i] + k * p + j];
+        k = j;
+        j = h;
+      }
+    }
+    return last + 1;
+  }
+
+  /**
+   * Joins the symbols of phone IDs with hyphens.
+   * @param phones the phone IDs, as written by decode
+   * @param count the number of phone IDs to join
+   * @return Returns the hyphen-separated phones
+   */
+  public String toPhones(int[] phones, int count) {
+    StringBuilder res = new StringBuilder(count * 4);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        res.append('-');
+      }
+      res.append(model.phones().symbol(phones[i]));
+    }
+    return res.toString();
+  }
+}
@@ -0,0 +1,288 @@
+import java.util.*;
+
+/**
+ * A read-only, second-order transition model over the phones of a
+ * CompiledModel, conditioning each phone on the two phones before it.
+ * <p>
+ *
+ * Only the pairs of phones observed in training have a context, so the
+ * contexts are kept sparse: an open-addressed hash table maps each pair of
+ * phone IDs, packed into a long, to a row of a CSR table holding the phones
+ * seen after that pair, sorted by ID.
+ * <p>
+ *
+ * Probabilities back off to the bigram transitions of the CompiledModel.
+ * Within a known context the trigram and bigram estimates are interpolated,
+ *
+ *   P(c | a, b) = w * P3(c | a, b) + (1 - w) * P(c | b),
+ *
+ * so phones never seen after the pair keep a share of their bigram
+ * probability, while in an unknown context P(c | a, b) = P(c | b). The
+ * interpolated log probability of every phone in a row is computed once
+ * at compile time.
+ * <p>
+ *
+ * A TrigramModel is immutable once compiled and may be read by any number
+ * of threads at once.
+ */
+public final class TrigramModel {
+
+  /**
+   * The trigram weight used by ParseModifiedBoston.compileTrigrams.
+   */
+  public static final double DEFAULT_WEIGHT = 0.7;
+
+  private final CompiledModel bigram;
+  private final double weight;
+
+  // Log of (1 - weight), added to the bigram log probability of a phone
+  // missing from the row of a known context.
+  private final double backoffLogWeight;
+
+  // Packed phone pairs, and (row + 1) by the hash of each pair, 0 marking
+  // an empty slot.
+  private final long[] keys;
+  private final int[] slots;
+  private final int mask;
+
+  private final int[] offsets;
+  private final int[] targets;
+  private final double[] logProbs;
+
+  private TrigramModel(CompiledModel bigram, double weight, long[] keys,
+                       int[] offsets, int[] targets, double[] logProbs) {
+    this.bigram = bigram;
+    this.weight = weight;
+    this.backoffLogWeight = Math.log(1 - weight);
+    this.keys = keys;
+    int capacity = 2;
+    while (capacity < keys.length * 2) {
+      capacity <<= 1;
+    }
+    this.slots = new int[capacity];
+    this.mask = capacity - 1;
+    for (int row = 0; row < keys.length; row++) {
+      int slot = hash(keys[row]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = row + 1;
+    }
+    this.offsets = offsets;
+    this.targets = targets;
+    this.logProbs = logProbs;
+  }
+
+  /**
+   * Names the context of a pair of phones, as the nodes of a trigram graph
+   * are named.
+   * @param first the earlier phone
+   * @param second the phone following first
+   * @return Returns the phones separated by a space
+   */
+  public static String context(String first, String second) {
+    return first + " " + second;
+  }
+
+  /**
+   * Compiles second-order transitions against the phones of a model.
+   * @param trigrams a graph from nodes named by context() to the phones
+   *                 following them, connected by normalized probabilities
+   * @param bigram the model whose phones and transitions to back off to
+   * @param weight the share of probability given to the trigram estimate
+   *               in a known context
+   * @return The compiled trigram model. Contexts or phones unknown to
+   *         bigram are dropped.
+   * @throws IllegalArgumentException if weight is not between 0 and 1
+   */
+  public static TrigramModel compile(Graph<String, Double> trigrams,
+                                     CompiledModel bigram, double weight) {
+    if (!(weight >= 0 && weight <= 1)) {
+      throw new IllegalArgumentException();
+    }
+
+    // Resolve every context to its pair of phone IDs, in a fixed order.
+    SymbolTable phones = bigram.phones();
+    List<String> contexts = new ArrayList<>();
+    List<Long> pairs = new ArrayList<>();
+    for (String node : new TreeSet<>(trigrams.getNodes())) {
+      int space = node.indexOf(' ');
+      if (space < 0 || trigrams.getChildrenOf(node).isEmpty()) {
+        continue;
+      }
+      int a = phones.id(node.substring(0, space));
+      int b = phones.id(node.substring(space + 1));
+      if (a >= 0 && b >= 0) {
+        contexts.add(node);
+        pairs.add(pack(a, b));
+      }
+    }
+
+    long[] keys = new long[contexts.size()];
+    int[] offsets = new int[contexts.size() + 1];
+    List<int[]> rows = new ArrayList<>();
+    for (int row = 0; row < keys.length; row++) {
+      keys[row] = pairs.get(row);
+      int[] ids = new int[trigrams.getChildrenOf(contexts.get(row)).size()];
+      int count = 0;
+      for (String c : trigrams.getChildrenOf(contexts.get(row))) {
+        int id = phones.id(c);
+        if (id >= 0) {
+          ids[count++] = id;
+        }
+      }
+      ids = Arrays.copyOf(ids, count);
+      Arrays.sort(ids);
+      rows.add(ids);
+      offsets[row + 1] = offsets[row] + count;
+    }
+
+    int[] targets = new int[offsets[keys.length]];
+    double[] logProbs = new double[targets.length];
+    for (int row = 0; row < keys.length; row++) {
+      String node = contexts.get(row);
+      int b = (int) keys[row];
+      int[] ids = rows.get(row);
+      for (int i = 0; i < ids.length; i++) {
+        int k = offsets[row] + i;
+        double p3 = trigrams.getEdgeBetween(node, phones.symbol(ids[i]));
+        targets[k] = ids[i];
+        logProbs[k] = Math.log(weight * p3 + (1 - weight) * bigram.transitionProb(b, ids[i]));
+      }
+    }
+
+    return new TrigramModel(bigram, weight, keys, offsets, targets, logProbs);
+  }
+
+  /**
+   * @return Returns the model whose phones this model is over, and whose
+   *         transitions it backs off to
+   */
+  public CompiledModel getBigram() {
+    return bigram;
+  }
+
+  /**
+   * @return Returns the share of probability given to the trigram
+   *         estimate in a known context
+   */
+  public double getWeight() {
+    return weight;
+  }
+
+  /**
+   * @return Returns the number of known contexts
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Finds the context of a pair of phones.
+   * @param a the ID of the earlier phone
+   * @param b the ID of the phone following a
+   * @return Returns the row of the context, or -1 if the pair was never
+   *         followed by a phone in training
+   */
+  public int context(int a, int b) {
+    long key = pack(a, b);
+    int slot = hash(key) & mask;
+    while (slots[slot] != 0) {
+      int row = slots[slot] - 1;
+      if (keys[row] == key) {
+        return row;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first phone of a context row. The phones of
+   * row r are the indices [rowStart(r), rowEnd(r)), sorted by ID.
+   * @param row a row returned by context(int, int)
+   */
+  public int rowStart(int row) {
+    return offsets[row];
+  }
+
+  /**
+   * Returns the index one past the last phone of a context row.
+   * @param row a row returned by context(int, int)
+   */
+  public int rowEnd(int row) {
+    return offsets[row + 1];
+  }
+
+  /**
+   * Finds a phone within a context row.
+   * @param row a row returned by context(int, int)
+   * @param c the ID of a phone
+   * @return Returns the index of c within the row, or -1 if c never
+   *         followed the pair of the row in training
+   */
+  public int find(int row, int c) {
+    int k = Arrays.binarySearch(targets, offsets[row], offsets[row + 1], c);
+    return k >= 0 ? k : -1;
+  }
+
+  /**
+   * @param k an index within a context row
+   * @return Returns the ID of the phone at index k
+   */
+  public int target(int k) {
+    return targets[k];
+  }
+
+  /**
+   * @param k an index within a context row
+   * @return Returns the interpolated log probability of the phone at
+   *         index k following the pair of its row
+   */
+  public double logProbAt(int k) {
+    return logProbs[k];
+  }
+
+  /**
+   * @return Returns the log of the share of its bigram probability kept by
+   *         a phone missing from the row of a known context
+   */
+  public double backoffLogWeight() {
+    return backoffLogWeight;
+  }
+
+  /**
+   * Returns the log probability of a phone following a pair of phones.
+   * @param a the ID of the earlier phone
+   * @param b the ID of the phone following a
+   * @param c the ID of the phone following b
+   * @return Returns the log probability, or negative infinity if c never
+   *         followed b in training
+   */
+  public double logProb(int a, int b, int c) {
+    int row = context(a, b);
+    if (row < 0) {
+      return bigram.transitionLogProb(b, c);
+    }
+    int k = find(row, c);
+    return k >= 0 ? logProbs[k] : backoffLogWeight + bigram.transitionLogProb(b, c);
+  }
+
+  /**
+   * @return Returns the approximate number of bytes occupied by the
+   *         context tables of this model, excluding its bigram model
+   */
+  public long getFootprint() {
+    return 8L * keys.length + 4L * slots.length + 4L * offsets.length
+            + 4L * targets.length + 8L * logProbs.length;
+  }
+
+  private static long pack(int a, int b) {
+    return ((long) a << 32) | (b & 0xffffffffL);
+  }
+
+  // Mixes all bits of a packed pair into the low bits used for slots.
+  private static int hash(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+}
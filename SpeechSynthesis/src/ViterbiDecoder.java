@@ -0,0 +1,553 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dynamic-programming Viterbi decoder for grapheme-to-phoneme translation.
+ * <p>
+ *
+ * The decoder keeps one column of scores per grapheme position, where each
+ * entry of a column corresponds to an emission of that grapheme, i.e. a phone
+ * the grapheme may map to. Every entry holds the probability of the best path
+ * ending in that phone along with a backpointer into the previous column, so
+ * filling a column only ever consults the column before it. Decoding a word
+ * of T graphemes with at most N phones per grapheme therefore costs O(T * N^2).
+ * <p>
+ *
+ * The decoder runs entirely on the integer IDs of a CompiledModel. Scores are
+ * either raw probabilities or, in ScoringMode.LOG, sums of log probabilities,
+ * which cannot underflow on long words.
+ * <p>
+ *
+ * The search may optionally be narrowed to a beam. After each column is
+ * filled, entries scoring more than a threshold below the best entry of the
+ * column are pruned, as are all but the top K entries. Pruned entries are
+ * never extended, bounding the work per grapheme at the cost of possibly
+ * missing the most probable path.
+ * <p>
+ *
+ * For n-best decoding every entry keeps its n best partial paths instead of
+ * one, and the n best extensions of an entry are drawn lazily from the
+ * previous column through a heap holding one candidate per previous entry.
+ * <p>
+ *
+ * Decoders hold no per-call state and may be shared between threads.
+ */
+public class ViterbiDecoder {
+
+  private final CompiledModel model;
+  private final boolean logSpace;
+
+  // Score of a path that does not exist.
+  private final double dead;
+
+  // Maximum number of entries kept per column and the maximum log
+  // difference between a kept entry and the best entry of its column.
+  private final int beamWidth;
+  private final double beamThreshold;
+  private final LongAdder pruned = new LongAdder();
+
+  // Receives the work done per word, may be null.
+  private final DecoderMetrics metrics;
+
+  /**
+   * Constructor for a ViterbiDecoder scoring with raw probabilities
+   * @param model the compiled network to decode with
+   */
+  public ViterbiDecoder(CompiledModel model) {
+    this(model, ScoringMode.PROBABILITY);
+  }
+
+  /**
+   * Constructor for a ViterbiDecoder
+   * @param model the compiled network to decode with
+   * @param mode the arithmetic to score paths with
+   */
+  public ViterbiDecoder(CompiledModel model, ScoringMode mode) {
+    this(model, mode, Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Constructor for a ViterbiDecoder searching within a beam
+   * @param model the compiled network to decode with
+   * @param mode the arithmetic to score paths with
+   * @param beamWidth the number of entries kept per grapheme position
+   * @param beamThreshold entries whose natural log score is more than this
+   *                      below the best entry at their position are pruned
+   * @throws IllegalArgumentException if beamWidth is less than 1 or
+   *         beamThreshold is negative
+   */
+  public ViterbiDecoder(CompiledModel model, ScoringMode mode,
+                        int beamWidth, double beamThreshold) {
+    this(model, mode, beamWidth, beamThreshold, null);
+  }
+
+  /**
+   * Constructor for a ViterbiDecoder searching within a beam that reports
+   * the hypotheses it extends and the words it falls back on
+   * @param model the compiled network to decode with
+   * @param mode the arithmetic to score paths with
+   * @param beamWidth the number of entries kept per grapheme position
+   * @param beamThreshold entries whose natural log score is more than this
+   *                      below the best entry at their position are pruned
+   * @param metrics the metrics to record each decode(int[]) to, or null
+   * @throws IllegalArgumentException if beamWidth is less than 1 or
+   *         beamThreshold is negative
+   */
+  public ViterbiDecoder(CompiledModel model, ScoringMode mode,
+                        int beamWidth, double beamThreshold,
+                        DecoderMetrics metrics) {
+    if (beamWidth < 1 || !(beamThreshold >= 0)) {
+      throw new IllegalArgumentException();
+    }
+    this.model = model;
+    this.logSpace = mode == ScoringMode.LOG;
+    this.dead = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+    this.beamWidth = beamWidth;
+    this.beamThreshold = beamThreshold;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return Returns the number of hypotheses this decoder has pruned
+   *         from its beam
+   */
+  public long getPrunedHypotheses() {
+    return pruned.sum();
+  }
+
+  /**
+   * Finds the most probable sequence of phones for the given graphemes.
+   * If no path covers every grapheme, the most probable path covering
+   * all but the last grapheme is returned instead.
+   * @param obs The observed graphemes
+   * @return The phones of the best path separated by hyphens, or null if
+   *         no suitable path exists
+   */
+  public String decode(String[] obs) {
+    int[] path = decode(lookup(obs));
+    if (path == null) {
+      return null;
+    }
+    return toPhones(path, path.length);
+  }
+
+  /**
+   * Finds the most probable sequence of phones for the given graphemes.
+   * @param obs The IDs of the observed graphemes, -1 for unknown graphemes
+   * @return The phone IDs of the best path, which may omit the last grapheme
+   *         as described by decode(String[]), or null if no suitable path
+   *         exists
+   */
+  public int[] decode(int[] obs) {
+    int[] phones = new int[obs.length];
+    int count = decode(obs, obs.length, DecoderState.current(), phones);
+    return count < 0 ? null : Arrays.copyOf(phones, count);
+  }
+
+  /**
+   * Finds the most probable sequence of phones for hyphen-segmented
+   * graphemes, as decode(String[]) does for grapheme.split("-"), writing
+   * the phone IDs of the best path into a caller-supplied buffer. Once the
+   * state has grown to fit the word, nothing is allocated; phone IDs may
+   * be turned into a String with toPhones only if they are needed.
+   * @param graphemes The hyphen-segmented graphemes
+   * @param state the scratch space to decode in
+   * @param phones receives the phone IDs of the best path
+   * @requires phones holds at least as many entries as there are graphemes
+   * @return Returns the number of phone IDs written, which is one less than
+   *         the number of graphemes if the path omits the last grapheme, or
+   *         -1 if no suitable path exists
+   */
+  public int decode(CharSequence graphemes, DecoderState state, int[] phones) {
+    return decode(state.obs, state.split(graphemes, model.graphemes()), state, phones);
+  }
+
+  /**
+   * Finds the most probable sequence of phones for the given graphemes,
+   * writing the phone IDs of the best path into a caller-supplied buffer.
+   * Once the state has grown to fit the word, nothing is allocated.
+   * @param obs The IDs of the observed graphemes, -1 for unknown graphemes
+   * @param n The number of graphemes, taken from the start of obs
+   * @param state the scratch space to decode in
+   * @param phones receives the phone IDs of the best path
+   * @requires phones holds at least n entries, and obs is not one of the
+   *           arrays of state
+   * @return Returns the number of phone IDs written, which is n - 1 if the
+   *         path omits the last grapheme as described by decode(String[]),
+   *         or -1 if no suitable path exists
+   */
+  public int decode(int[] obs, int n, DecoderState state, int[] phones) {
+    if (obs != state.obs) {
+      state.ensureWord(n);
+    }
+
+    // Lay out one column per known grapheme, up to the first unknown one.
+    int[] columnStarts = state.columnStarts;
+    int known = 0;
+    int width = 0;
+    columnStarts[0] = 0;
+    while (known < n && obs[known] >= 0) {
+      int w = model.emissionEnd(obs[known]) - model.emissionStart(obs[known]);
+      columnStarts[known + 1] = columnStarts[known] + w;
+      width = Math.max(width, w);
+      known++;
+    }
+    state.ensureCells(columnStarts[known], width);
+    double[] scores = state.scores;
+    int[] backpointers = state.backpointers;
+
+    // Index of the last column holding at least one live path.
+    int last = -1;
+    long expanded = 0;
+    for (int i = 0; i < known; i++) {
+      int start = model.emissionStart(obs[i]);
+      int end = model.emissionEnd(obs[i]);
+      int column = columnStarts[i];
+      int prevColumn = i > 0 ? columnStarts[i - 1] : 0;
+      boolean alive = false;
+      for (int k = start; k < end; k++) {
+        double best = dead;
+        int bestPrev = -1;
+        if (i == 0) {
+
+          // curr phone is a starting phone
+          best = logSpace ? model.initialLogProb(k) : model.initialProb(k);
+          expanded++;
+        } else {
+          int prevStart = model.emissionStart(obs[i - 1]);
+          int curr_phone = model.emissionPhone(k);
+          for (int j = 0; j < column - prevColumn; j++) {
+            if (scores[prevColumn + j] > dead) {
+              expanded++;
+              int last_phone = model.emissionPhone(prevStart + j);
+              double prob = logSpace
+                      ? scores[prevColumn + j] + model.transitionLogProb(last_phone, curr_phone)
+                      : scores[prevColumn + j] * model.transitionProb(last_phone, curr_phone);
+              if (prob > best) {
+                best = prob;
+                bestPrev = j;
+              }
+            }
+          }
+        }
+        scores[column + k - start] = best;
+        backpointers[column + k - start] = bestPrev;
+        alive |= best > dead;
+      }
+
+      if (!alive) {
+        break;
+      }
+      prune(scores, column, columnStarts[i + 1], state.sorted);
+      last = i;
+    }
+
+    // Paths which failed on the final grapheme fall back to the
+    // best path ending on the second to last grapheme.
+    if (metrics != null) {
+      metrics.recordDecode(expanded, last >= 0 && last == n - 2);
+    }
+    if (last < 0 || last < n - 2) {
+      return -1;
+    }
+
+    // Follow the backpointers from the best entry of column "last".
+    int best = -1;
+    double max_prob = dead;
+    for (int k = 0; k < columnStarts[last + 1] - columnStarts[last]; k++) {
+      if (scores[columnStarts[last] + k] > max_prob) {
+        max_prob = scores[columnStarts[last] + k];
+        best = k;
+      }
+    }
+    for (int i = last; i >= 0; i--) {
+      phones[i] = model.emissionPhone(model.emissionStart(obs[i]) + best);
+      best = backpointers[columnStarts[i] + best];
+    }
+    return last + 1;
+  }
+
+  /**
+   * Joins the symbols of phone IDs with hyphens.
+   * @param phones the phone IDs, as written by decode
+   * @param count the number of phone IDs to join
+   * @return Returns the hyphen-separated phones
+   */
+  public String toPhones(int[] phones, int count) {
+    StringBuilder res = new StringBuilder(count * 4);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        res.append('-');
+      }
+      res.append(model.phones().symbol(phones[i]));
+    }
+    return res.toString();
+  }
+
+  /**
+   * Finds the n most probable sequences of phones for the given graphemes
+   * in a single decoding pass. As with decode(String[]), if no path covers
+   * every grapheme then the paths covering all but the last grapheme are
+   * ranked instead.
+   * @param obs The observed graphemes
+   * @param n The maximum number of pronunciations to return
+   * @return Returns the pronunciations, most probable first. The list is
+   *         empty if no suitable path exists.
+   * @throws IllegalArgumentException if n is less than 1
+   */
+  public List<Pronunciation> decodeNBest(String[] obs, int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    int[] ids = lookup(obs);
+    int len = ids.length;
+
+    // Entry k of column i keeps ranks[i][k] partial paths, best first, in
+    // scores[i][k * n + r]. Backpointers address the previous column the
+    // same way, as (entry * n + rank).
+    double[][] scores = new double[len][];
+    int[][] backpointers = new int[len][];
+    int[][] ranks = new int[len][];
+    CandidateHeap heap = new CandidateHeap();
+
+    int last = -1;
+    for (int i = 0; i < len; i++) {
+      if (ids[i] < 0) {
+        break;
+      }
+
+      int start = model.emissionStart(ids[i]);
+      int end = model.emissionEnd(ids[i]);
+      scores[i] = new double[(end - start) * n];
+      backpointers[i] = new int[(end - start) * n];
+      ranks[i] = new int[end - start];
+      double[] best = new double[end - start];
+      boolean alive = false;
+      for (int k = start; k < end; k++) {
+        int entry = k - start;
+        if (i == 0) {
+          scores[i][entry * n] = logSpace ? model.initialLogProb(k) : model.initialProb(k);
+          backpointers[i][entry * n] = -1;
+          ranks[i][entry] = scores[i][entry * n] > dead ? 1 : 0;
+        } else {
+          ranks[i][entry] = extend(ids[i - 1], scores[i - 1], ranks[i - 1],
+                                   model.emissionPhone(k), n, heap,
+                                   scores[i], backpointers[i], entry * n);
+        }
+        best[entry] = ranks[i][entry] > 0 ? scores[i][entry * n] : dead;
+        alive |= ranks[i][entry] > 0;
+      }
+
+      if (!alive) {
+        break;
+      }
+      prune(best, 0, best.length, new double[best.length]);
+      for (int entry = 0; entry < best.length; entry++) {
+        if (best[entry] == dead) {
+          ranks[i][entry] = 0;
+        }
+      }
+      last = i;
+    }
+
+    List<Pronunciation> res = new ArrayList<>();
+    if (last < 0 || last < len - 2) {
+      return res;
+    }
+
+    // Merge the ranked paths of every entry of the final column.
+    heap.clear();
+    for (int entry = 0; entry < ranks[last].length; entry++) {
+      if (ranks[last][entry] > 0) {
+        heap.push(scores[last][entry * n], entry * n);
+      }
+    }
+    while (res.size() < n && heap.size() > 0) {
+      double score = heap.topScore();
+      int item = heap.pop();
+      int entry = item / n;
+      if (item % n + 1 < ranks[last][entry]) {
+        heap.push(scores[last][item + 1], item + 1);
+      }
+
+      int[] path = new int[last + 1];
+      for (int i = last; i >= 0; i--) {
+        path[i] = model.emissionPhone(model.emissionStart(ids[i]) + item / n);
+        item = backpointers[i][item];
+      }
+      res.add(new Pronunciation(String.join("-", Arrays.copyOf(obs, last + 1)),
+                                toPhones(path, path.length), logSpace ? score : Math.log(score)));
+    }
+    return res;
+  }
+
+  // Fills the ranked paths of an entry emitting curr_phone from the ranked
+  // paths of the previous column, writing them at offset "at" of scores and
+  // backpointers. Returns the number of paths written.
+  private int extend(int prevGrapheme, double[] prevScores, int[] prevRanks,
+                     int curr_phone, int n, CandidateHeap heap,
+                     double[] scores, int[] backpointers, int at) {
+    int prevStart = model.emissionStart(prevGrapheme);
+    double[] trans = new double[prevRanks.length];
+    heap.clear();
+    for (int j = 0; j < prevRanks.length; j++) {
+      int last_phone = model.emissionPhone(prevStart + j);
+      trans[j] = logSpace
+              ? model.transitionLogProb(last_phone, curr_phone)
+              : model.transitionProb(last_phone, curr_phone);
+      if (prevRanks[j] > 0 && trans[j] > dead) {
+        pushExtension(heap, prevScores, trans[j], j * n);
+      }
+    }
+
+    int r = 0;
+    while (r < n && heap.size() > 0) {
+      scores[at + r] = heap.topScore();
+      int item = heap.pop();
+      backpointers[at + r] = item;
+      r++;
+
+      // The next best extension through the same previous entry.
+      int j = item / n;
+      if (item % n + 1 < prevRanks[j]) {
+        pushExtension(heap, prevScores, trans[j], item + 1);
+      }
+    }
+    return r;
+  }
+
+  // Pushes the extension of a previous path by a transition, unless
+  // the product underflows.
+  private void pushExtension(CandidateHeap heap, double[] prevScores,
+                             double trans, int item) {
+    double score = logSpace ? prevScores[item] + trans : prevScores[item] * trans;
+    if (score > dead) {
+      heap.push(score, item);
+    }
+  }
+
+  // Looks up the IDs of the observed graphemes, -1 for unknown ones.
+  private int[] lookup(String[] obs) {
+    int[] ids = new int[obs.length];
+    for (int i = 0; i < obs.length; i++) {
+      ids[i] = model.graphemes().id(obs[i]);
+    }
+    return ids;
+  }
+
+  // Marks the entries [from, to) of scores, which make up one column,
+  // as dead if they fall outside of the beam. sorted is scratch space of
+  // at least to - from entries.
+  private void prune(double[] scores, int from, int to, double[] sorted) {
+    if (beamThreshold == Double.POSITIVE_INFINITY && to - from <= beamWidth) {
+      return;
+    }
+
+    double best = dead;
+    int live = 0;
+    for (int k = from; k < to; k++) {
+      if (scores[k] > dead) {
+        best = Math.max(best, scores[k]);
+        live++;
+      }
+    }
+
+    int count = 0;
+    double cutoff = logSpace ? best - beamThreshold : best * Math.exp(-beamThreshold);
+    if (cutoff > dead) {
+      for (int k = from; k < to; k++) {
+        if (scores[k] > dead && scores[k] < cutoff) {
+          scores[k] = dead;
+          live--;
+          count++;
+        }
+      }
+    }
+
+    if (live > beamWidth) {
+
+      // Keep the entries scoring above the K-th best score, then as many
+      // entries tied with it as there is room left for.
+      int width = to - from;
+      System.arraycopy(scores, from, sorted, 0, width);
+      Arrays.sort(sorted, 0, width);
+      double kth = sorted[width - beamWidth];
+      int ties = beamWidth;
+      for (int k = from; k < to; k++) {
+        if (scores[k] > kth) {
+          ties--;
+        }
+      }
+      for (int k = from; k < to; k++) {
+        if (scores[k] < kth || (scores[k] == kth && ties-- <= 0)) {
+          if (scores[k] > dead) {
+            scores[k] = dead;
+            count++;
+          }
+        }
+      }
+    }
+
+    if (count > 0) {
+      pruned.add(count);
+    }
+  }
+
+  // A binary max-heap of scored items, used to merge ranked paths.
+  private static class CandidateHeap {
+    private double[] scores = new double[16];
+    private int[] items = new int[16];
+    private int size;
+
+    private void clear() {
+      size = 0;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private double topScore() {
+      return scores[0];
+    }
+
+    private void push(double score, int item) {
+      if (size == scores.length) {
+        scores = Arrays.copyOf(scores, size * 2);
+        items = Arrays.copyOf(items, size * 2);
+      }
+      int i = size++;
+      while (i > 0 && scores[(i - 1) / 2] < score) {
+        scores[i] = scores[(i - 1) / 2];
+        items[i] = items[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      scores[i] = score;
+      items[i] = item;
+    }
+
+    // Removes the top of the heap, returning its item.
+    private int pop() {
+      int top = items[0];
+      double score = scores[--size];
+      int item = items[size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && scores[child + 1] > scores[child]) {
+          child++;
+        }
+        if (scores[child] <= score) {
+          break;
+        }
+        scores[i] = scores[child];
+        items[i] = items[child];
+        i = child;
+      }
+      scores[i] = score;
+      items[i] = item;
+      return top;
+    }
+  }
+}